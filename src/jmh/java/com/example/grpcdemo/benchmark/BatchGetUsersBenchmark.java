@@ -0,0 +1,125 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.BatchGetUsersRequest;
+import com.example.grpc.BatchGetUsersResponse;
+import com.example.grpc.GetUserRequest;
+import com.example.grpc.GetUserResponse;
+import com.example.grpc.UserServiceGrpc;
+import com.example.grpcdemo.service.PreEncodedUserService;
+import com.example.grpcdemo.service.UserServiceImpl;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One BatchGetUsers call against the same N users fetched with N GetUser calls
+ *
+ * Runs over the in-process transport so the comparison shows per-call
+ * overhead in the server and stubs rather than network latency, which
+ * would only widen the gap. Each invocation fetches batchSize random users.
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="BatchGetUsersBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchGetUsersBenchmark {
+
+    private static final int REQUEST_SETS = 1024;
+
+    @Param({"50", "500"})
+    public int batchSize;
+
+    @Param({"100000"})
+    public int userCount;
+
+    private UserServiceImpl service;
+    private Server server;
+    private ManagedChannel channel;
+    private UserServiceGrpc.UserServiceBlockingStub blockingStub;
+    private UserServiceGrpc.UserServiceFutureStub futureStub;
+    private BatchGetUsersRequest[] batches;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        BenchmarkSupport.quietLogging();
+        service = BenchmarkSupport.service(BenchmarkSupport.populatedStore(userCount));
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(PreEncodedUserService.bind(service))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        blockingStub = UserServiceGrpc.newBlockingStub(channel);
+        futureStub = UserServiceGrpc.newFutureStub(channel);
+
+        SplittableRandom random = new SplittableRandom(42);
+        batches = new BatchGetUsersRequest[REQUEST_SETS];
+        for (int i = 0; i < REQUEST_SETS; i++) {
+            BatchGetUsersRequest.Builder batch = BatchGetUsersRequest.newBuilder();
+            for (int j = 0; j < batchSize; j++) {
+                batch.addIds(random.nextInt(userCount) + 1);
+            }
+            batches[i] = batch.build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        service.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BatchGetUsersResponse batchGetUsers() {
+        return blockingStub.batchGetUsers(nextBatch());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int sequentialGetUser() {
+        BatchGetUsersRequest batch = nextBatch();
+        int found = 0;
+        for (int i = 0; i < batch.getIdsCount(); i++) {
+            found += blockingStub.getUser(GetUserRequest.newBuilder().setId(batch.getIds(i)).build()).getUser().getId();
+        }
+        return found;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int concurrentGetUser() throws ExecutionException, InterruptedException {
+        // All N calls in flight at once, the best case for the one-call-per-user pattern
+        BatchGetUsersRequest batch = nextBatch();
+        List<ListenableFuture<GetUserResponse>> calls = new ArrayList<>(batch.getIdsCount());
+        for (int i = 0; i < batch.getIdsCount(); i++) {
+            calls.add(futureStub.getUser(GetUserRequest.newBuilder().setId(batch.getIds(i)).build()));
+        }
+        int found = 0;
+        for (ListenableFuture<GetUserResponse> call : calls) {
+            found += call.get().getUser().getId();
+        }
+        return found;
+    }
+
+    private BatchGetUsersRequest nextBatch() {
+        BatchGetUsersRequest batch = batches[next];
+        next = (next + 1) % REQUEST_SETS;
+        return batch;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.grpcdemo.benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.example.grpc.DeleteUserRequest;
+import com.example.grpc.DeleteUserResponse;
+import com.example.grpc.User;
+import com.example.grpc.UserStatus;
+import com.example.grpcdemo.config.StoreMode;
+import com.example.grpcdemo.service.GetUserResponseCache;
+import com.example.grpcdemo.service.UserServiceImpl;
+import com.example.grpcdemo.store.DepartmentIndex;
+import com.example.grpcdemo.store.EmailIndex;
+import com.example.grpcdemo.store.HeapDepartmentIndex;
+import com.example.grpcdemo.store.HeapEmailIndex;
+import com.example.grpcdemo.store.HeapUserStore;
+import com.example.grpcdemo.store.IdAllocator;
+import com.example.grpcdemo.store.OffHeapDepartmentIndex;
+import com.example.grpcdemo.store.OffHeapEmailIndex;
+import com.example.grpcdemo.store.OffHeapUserStore;
+import com.example.grpcdemo.store.UserStore;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared setup for benchmarks that run the service outside Spring
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Without Spring, logback-spring.xml is not read and logback logs DEBUG
+     * to the console, which would dominate any measurement
+     */
+    static void quietLogging() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+
+    /**
+     * Heap store holding users with IDs 1 to count
+     */
+    static UserStore populatedStore(int count) {
+        return populatedStore(StoreMode.HEAP, count);
+    }
+
+    /**
+     * Store of the given grpc.store.mode holding users with IDs 1 to count
+     */
+    static UserStore populatedStore(StoreMode mode, int count) {
+        UserStore store;
+        switch (mode) {
+            case HEAP:
+                store = new HeapUserStore(count);
+                break;
+            case OFFHEAP:
+                store = new OffHeapUserStore(count, 64 << 20);
+                break;
+            default:
+                throw new AssertionError(mode);
+        }
+        for (int id = 1; id <= count; id++) {
+            store.put(user(id));
+        }
+        return store;
+    }
+
+    /**
+     * Service over a heap store, sized like application.properties defaults
+     */
+    static UserServiceImpl service(UserStore store) {
+        return service(StoreMode.HEAP, store);
+    }
+
+    /**
+     * Service with the indexes and response cache UserStoreConfig picks for
+     * the grpc.store.mode, sized like application.properties defaults
+     */
+    static UserServiceImpl service(StoreMode mode, UserStore store) {
+        EmailIndex emailIndex;
+        DepartmentIndex departmentIndex;
+        switch (mode) {
+            case HEAP:
+                emailIndex = new HeapEmailIndex(store);
+                departmentIndex = new HeapDepartmentIndex();
+                break;
+            case OFFHEAP:
+                emailIndex = new OffHeapEmailIndex(store, store.size());
+                departmentIndex = new OffHeapDepartmentIndex();
+                break;
+            default:
+                throw new AssertionError(mode);
+        }
+        return new UserServiceImpl(store, emailIndex, departmentIndex,
+                new GetUserResponseCache(mode == StoreMode.HEAP ? 1_000_000 : 0),
+                new IdAllocator(1, 64, IdAllocator.ReservationLog.NONE), 1_000, 1_000, 1_000, 1_000);
+    }
+
+    /**
+     * Deletes, through the service so its indexes follow, every user a
+     * benchmark created on top of IDs 1 to lastId
+     */
+    static void removeUsersAbove(int lastId, UserServiceImpl service, UserStore store) {
+        List<Integer> added = new ArrayList<>();
+        store.forEach(user -> {
+            if (user.getId() > lastId) {
+                added.add(user.getId());
+            }
+        });
+        StreamObserver<DeleteUserResponse> ignored = new StreamObserver<>() {
+            @Override
+            public void onNext(DeleteUserResponse response) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        };
+        for (int id : added) {
+            service.deleteUser(DeleteUserRequest.newBuilder().setId(id).build(), ignored);
+        }
+    }
+
+    static User user(int id) {
+        return User.newBuilder()
+                .setId(id)
+                .setName("Benchmark User " + id)
+                .setEmail("user" + id + "@example.com")
+                .setAge(20 + id % 50)
+                .setDepartment("Department " + id % 16)
+                .setStatus(UserStatus.ACTIVE)
+                .setCreatedAt(1_700_000_000_000L)
+                .setUpdatedAt(1_700_000_000_000L)
+                .setVersion(1)
+                .build();
+    }
+}
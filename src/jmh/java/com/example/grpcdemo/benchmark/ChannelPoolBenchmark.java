@@ -0,0 +1,70 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.GetUserRequest;
+import com.example.grpc.GetUserResponse;
+import com.example.grpc.UserServiceGrpc;
+import com.example.grpcdemo.client.ChannelPool;
+import com.example.grpcdemo.service.PreEncodedUserService;
+import com.example.grpcdemo.service.UserServiceImpl;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client throughput over one connection against a pool of connections
+ *
+ * Many client threads issue GetUser calls over loopback through a
+ * ChannelPool of poolSize members. With one member every call shares one
+ * TCP connection and one client event-loop thread; with more, throughput
+ * should rise with the cores available to client and server.
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="ChannelPoolBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(32)
+public class ChannelPoolBenchmark {
+
+    private static final int USER_COUNT = 10_000;
+
+    @Param({"1", "4", "8"})
+    public int poolSize;
+
+    private UserServiceImpl service;
+    private Server server;
+    private ChannelPool pool;
+    private UserServiceGrpc.UserServiceBlockingStub stub;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        BenchmarkSupport.quietLogging();
+        service = BenchmarkSupport.service(BenchmarkSupport.populatedStore(USER_COUNT));
+        server = ServerBuilder.forPort(0).addService(PreEncodedUserService.bind(service)).build().start();
+        pool = new ChannelPool(poolSize, i -> ManagedChannelBuilder.forAddress("localhost", server.getPort())
+                .usePlaintext()
+                .build());
+        stub = UserServiceGrpc.newBlockingStub(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        pool.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        service.shutdown();
+    }
+
+    @Benchmark
+    public GetUserResponse getUser() {
+        return stub.getUser(GetUserRequest.newBuilder()
+                .setId(ThreadLocalRandom.current().nextInt(USER_COUNT) + 1)
+                .build());
+    }
+}
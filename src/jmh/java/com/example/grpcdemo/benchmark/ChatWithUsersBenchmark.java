@@ -0,0 +1,129 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.BatchGetUsersResponse;
+import com.example.grpc.GetUserRequest;
+import com.example.grpc.GetUserResponse;
+import com.example.grpc.UserServiceGrpc;
+import com.example.grpcdemo.service.PreEncodedUserService;
+import com.example.grpcdemo.service.UserServiceImpl;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * One chat stream of N lookups answered per request or in coalesced batches
+ *
+ * Each invocation opens a stream, sends requestsPerStream lookups back to
+ * back, half-closes and waits for the last response, so the score is the
+ * time to answer the whole burst.
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="ChatWithUsersBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatWithUsersBenchmark {
+
+    @Param({"1000"})
+    public int requestsPerStream;
+
+    @Param({"100000"})
+    public int userCount;
+
+    private UserServiceImpl service;
+    private Server server;
+    private ManagedChannel channel;
+    private UserServiceGrpc.UserServiceStub stub;
+    private GetUserRequest[] requests;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        BenchmarkSupport.quietLogging();
+        service = BenchmarkSupport.service(BenchmarkSupport.populatedStore(userCount));
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(PreEncodedUserService.bind(service))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        stub = UserServiceGrpc.newStub(channel);
+
+        SplittableRandom random = new SplittableRandom(42);
+        requests = new GetUserRequest[requestsPerStream];
+        for (int i = 0; i < requestsPerStream; i++) {
+            requests[i] = GetUserRequest.newBuilder().setId(random.nextInt(userCount) + 1).build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        service.shutdown();
+    }
+
+    @Benchmark
+    public int chatWithUsers() throws InterruptedException {
+        Answers<GetUserResponse> answers = new Answers<>(response -> 1);
+        send(stub.chatWithUsers(answers));
+        return answers.await();
+    }
+
+    @Benchmark
+    public int chatWithUsersBatched() throws InterruptedException {
+        Answers<BatchGetUsersResponse> answers = new Answers<>(BatchGetUsersResponse::getUsersCount);
+        send(stub.chatWithUsersBatched(answers));
+        return answers.await();
+    }
+
+    private void send(StreamObserver<GetUserRequest> stream) {
+        for (GetUserRequest request : requests) {
+            stream.onNext(request);
+        }
+        stream.onCompleted();
+    }
+
+    /**
+     * Counts users received until the server completes the stream
+     */
+    private static final class Answers<T> implements StreamObserver<T> {
+        private final ToIntFunction<T> users;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int received;
+
+        Answers(ToIntFunction<T> users) {
+            this.users = users;
+        }
+
+        @Override
+        public void onNext(T response) {
+            received += users.applyAsInt(response);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            done.countDown();
+        }
+
+        int await() throws InterruptedException {
+            done.await();
+            return received;
+        }
+    }
+}
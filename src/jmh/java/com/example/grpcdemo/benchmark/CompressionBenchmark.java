@@ -0,0 +1,91 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.BatchGetUsersResponse;
+import com.example.grpc.GetUserResponse;
+import com.example.grpc.ListUsersResponse;
+import com.example.grpcdemo.compression.SnappyCodec;
+import io.grpc.Codec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes saved against CPU spent per response type and message encoding
+ *
+ * Each response is encoded as the server would send it and then
+ * compressed and decompressed with the codec gRPC would use, so the score
+ * is the CPU both sides add per message. Setup prints the size on the wire
+ * for each combination; together they show where compression pays off and
+ * why GetUser is excluded by default.
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="CompressionBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"GetUser", "ListUsersPage100", "BatchGetUsers500"})
+    public String response;
+
+    @Param({"identity", "snappy", "gzip"})
+    public String encoding;
+
+    private Codec codec;
+    private byte[] message;
+    private byte[] compressed;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 16);
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        switch (encoding) {
+            case "identity" -> codec = Codec.Identity.NONE;
+            case "snappy" -> codec = new SnappyCodec();
+            case "gzip" -> codec = new Codec.Gzip();
+            default -> throw new IllegalArgumentException(encoding);
+        }
+        message = switch (response) {
+            case "GetUser" -> GetUserResponse.newBuilder().setUser(BenchmarkSupport.user(42)).build().toByteArray();
+            case "ListUsersPage100" -> {
+                ListUsersResponse.Builder page = ListUsersResponse.newBuilder().setPageSize(100);
+                for (int id = 1; id <= 100; id++) {
+                    page.addUsers(BenchmarkSupport.user(id));
+                }
+                yield page.build().toByteArray();
+            }
+            case "BatchGetUsers500" -> {
+                BatchGetUsersResponse.Builder batch = BatchGetUsersResponse.newBuilder();
+                for (int id = 1; id <= 500; id++) {
+                    batch.addUsers(BenchmarkSupport.user(id * 37));
+                }
+                yield batch.build().toByteArray();
+            }
+            default -> throw new IllegalArgumentException(response);
+        };
+        compressed = compress();
+        System.out.printf("%n%s with %s: %d bytes, %d on the wire%n", response, encoding, message.length, compressed.length);
+    }
+
+    @Benchmark
+    public byte[] compressAndDecompress() throws IOException {
+        compressed = compress();
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private byte[] compress() throws IOException {
+        buffer.reset();
+        try (OutputStream out = codec.compress(buffer)) {
+            out.write(message);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpcdemo.store.IdAllocator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Striped ID blocks against one shared AtomicInteger, from 1 to 64 threads
+ *
+ * Run the whole thread sweep with:
+ * mvn -Pbenchmarks compile exec:exec -Djmh.main=com.example.grpcdemo.benchmark.IdAllocationBenchmark
+ * Extra JMH options go in -Djmh.args as usual.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class IdAllocationBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+    // Many uncontended threads can issue 2^31 IDs within one iteration, so recycle well before that
+    private static final int RECYCLE_LIMIT = 1 << 30;
+
+    @Param({"64"})
+    public int blockSize;
+
+    private AtomicInteger counter;
+    private volatile IdAllocator allocator;
+    private volatile boolean exhausted;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        counter = new AtomicInteger(1);
+        allocator = newAllocator();
+    }
+
+    @Benchmark
+    public int sharedCounter() {
+        // Wraps instead of failing, which is fine for measuring the counter itself
+        return counter.getAndIncrement();
+    }
+
+    @Benchmark
+    public int blockAllocator() {
+        if (exhausted) {
+            recycle();
+        }
+        return allocator.next();
+    }
+
+    private IdAllocator newAllocator() {
+        exhausted = false;
+        return new IdAllocator(1, blockSize, limit -> {
+            if (limit > RECYCLE_LIMIT) {
+                exhausted = true;
+            }
+        });
+    }
+
+    private synchronized void recycle() {
+        if (exhausted) {
+            allocator = newAllocator();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        for (int threads : THREAD_COUNTS) {
+            new Runner(new OptionsBuilder()
+                    .parent(commandLine)
+                    .include(IdAllocationBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
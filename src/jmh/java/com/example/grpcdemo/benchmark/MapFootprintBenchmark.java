@@ -0,0 +1,78 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.User;
+import com.example.grpcdemo.store.ConcurrentIntObjectMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retained heap per entry of ConcurrentIntObjectMap against the
+ * ConcurrentHashMap&lt;Integer, User&gt; it replaced in HeapUserStore
+ *
+ * Each invocation fills a map presized for the entry count with IDs 1 to
+ * entries, all mapped to one shared User, so only the map's own structure
+ * is counted: key slots, value slots and, for ConcurrentHashMap, the boxed
+ * Integer and node per entry. After each iteration the heap in use is
+ * measured after full collections with the map reachable and again after
+ * dropping it; the difference divided by the entry count is printed as
+ * bytes per entry. The score itself is only the time to fill the map.
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="MapFootprintBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+// Serial GC makes System.gc() a full, compacting collection, so used heap is exact
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UseSerialGC", "-Xmx2g"})
+public class MapFootprintBenchmark {
+
+    private static final User SHARED = BenchmarkSupport.user(1);
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    @Param({"ConcurrentIntObjectMap", "ConcurrentHashMap"})
+    public String map;
+
+    @Param({"100000", "1000000"})
+    public int entries;
+
+    private Object filled;
+
+    @Benchmark
+    public Object fill() {
+        if (map.equals("ConcurrentIntObjectMap")) {
+            ConcurrentIntObjectMap<User> users = new ConcurrentIntObjectMap<>(entries);
+            for (int id = 1; id <= entries; id++) {
+                users.put(id, SHARED);
+            }
+            filled = users;
+        } else {
+            ConcurrentHashMap<Integer, User> users = new ConcurrentHashMap<>(entries);
+            for (int id = 1; id <= entries; id++) {
+                users.put(id, SHARED);
+            }
+            filled = users;
+        }
+        return filled;
+    }
+
+    @TearDown(Level.Iteration)
+    public void measure() {
+        long withMap = usedAfterGc();
+        filled = null;
+        long withoutMap = usedAfterGc();
+        System.out.printf("%n%s, %d entries: %.1f bytes per entry%n", map, entries,
+                (withMap - withoutMap) / (double) entries);
+    }
+
+    private static long usedAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.CreateUserRequest;
+import com.example.grpc.GetUserResponse;
+import com.example.grpc.ListUsersResponse;
+import com.example.grpc.User;
+import com.example.grpc.UserStatus;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding cost of the service's messages
+ *
+ * Serializes with toByteArray(), with writeTo() into a reused heap array
+ * and a reused direct buffer, and to a ByteString, then parses from a byte
+ * array, a ByteString, and heap and direct ByteBuffers. Users get
+ * realistic names, emails and departments, about 85 bytes encoded, some
+ * with non-ASCII names, so UTF-8 encoding is part of the cost. Messages are
+ * built from Strings as the service builds its responses; the same
+ * instance is serialized every time, so its memoized size is reused, as
+ * gRPC does when it asks for the size before writing. Setup prints the
+ * encoded size of each message.
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="SerializationBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private static final String[] FIRST_NAMES = {"Alexandra", "Mohammed", "Chen", "Olusegun", "Priya", "José",
+            "Zoë", "Bartholomew", "Siobhán", "Kenji", "Margaret", "Dmitri"};
+    private static final String[] LAST_NAMES = {"Montgomery-Fitzgerald", "Al-Rashid", "Nakamura", "Okonkwo",
+            "Raghunathan", "García Márquez", "Lindqvist", "Van der Berg", "O'Sullivan", "Kowalczyk"};
+    private static final String[] DEPARTMENTS = {"Engineering", "Platform Infrastructure", "Customer Success",
+            "Marketing", "Finance and Accounting", "Human Resources", "Research & Development", "Legal"};
+
+    @Param({"User", "CreateUserRequest", "GetUserResponse", "ListUsersResponse10", "ListUsersResponse100",
+            "ListUsersResponse1000"})
+    public String message;
+
+    private MessageLite value;
+    private Parser<? extends MessageLite> parser;
+    private byte[] encoded;
+    private ByteString encodedString;
+    private ByteBuffer encodedHeap;
+    private ByteBuffer encodedDirect;
+    private byte[] reusedArray;
+    private ByteBuffer reusedDirect;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        SplittableRandom random = new SplittableRandom(42);
+        switch (message) {
+            case "User":
+                value = user(1, random);
+                break;
+            case "CreateUserRequest":
+                User user = user(1, random);
+                value = CreateUserRequest.newBuilder()
+                        .setName(user.getName())
+                        .setEmail(user.getEmail())
+                        .setAge(user.getAge())
+                        .setDepartment(user.getDepartment())
+                        .build();
+                break;
+            case "GetUserResponse":
+                value = GetUserResponse.newBuilder().setUser(user(1, random)).build();
+                break;
+            default:
+                if (!message.startsWith("ListUsersResponse")) {
+                    throw new IllegalArgumentException(message);
+                }
+                int count = Integer.parseInt(message.substring("ListUsersResponse".length()));
+                ListUsersResponse.Builder page = ListUsersResponse.newBuilder().setPageSize(count);
+                for (int id = 1; id <= count; id++) {
+                    page.addUsers(user(id, random));
+                }
+                value = page.setNextPageToken("CgQIARBkEgZFbmdpbmVlcmluZw").build();
+        }
+        parser = value.getParserForType();
+        encoded = value.toByteArray();
+        encodedString = ByteString.copyFrom(encoded);
+        encodedHeap = ByteBuffer.wrap(encoded);
+        encodedDirect = ByteBuffer.allocateDirect(encoded.length).put(encoded).flip();
+        reusedArray = new byte[encoded.length];
+        reusedDirect = ByteBuffer.allocateDirect(encoded.length);
+        System.out.printf("%n%s: %d bytes%n", message, encoded.length);
+    }
+
+    private static User user(int id, SplittableRandom random) {
+        String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        long createdAt = 1_700_000_000_000L + random.nextInt(1_000_000_000);
+        String email = (first + "." + last).toLowerCase(Locale.ROOT).replaceAll("[^a-z.]", "") + id + "@corp.example.com";
+        return User.newBuilder()
+                .setId(id)
+                .setName(first + " " + last)
+                .setEmail(email)
+                .setAge(18 + random.nextInt(50))
+                .setDepartment(DEPARTMENTS[random.nextInt(DEPARTMENTS.length)])
+                .setStatus(UserStatus.ACTIVE)
+                .setCreatedAt(createdAt)
+                .setUpdatedAt(createdAt + random.nextInt(1_000_000))
+                .setVersion(1 + random.nextInt(5))
+                .build();
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return value.toByteArray();
+    }
+
+    @Benchmark
+    public int writeToReusedArray() throws IOException {
+        CodedOutputStream output = CodedOutputStream.newInstance(reusedArray);
+        value.writeTo(output);
+        return output.spaceLeft();
+    }
+
+    @Benchmark
+    public int writeToReusedDirectBuffer() throws IOException {
+        reusedDirect.clear();
+        CodedOutputStream output = CodedOutputStream.newInstance(reusedDirect);
+        value.writeTo(output);
+        output.flush();
+        return output.getTotalBytesWritten();
+    }
+
+    @Benchmark
+    public ByteString toByteString() {
+        return value.toByteString();
+    }
+
+    @Benchmark
+    public MessageLite byteStringRoundTrip() throws InvalidProtocolBufferException {
+        return parser.parseFrom(value.toByteString());
+    }
+
+    @Benchmark
+    public MessageLite parseFromByteArray() throws InvalidProtocolBufferException {
+        return parser.parseFrom(encoded);
+    }
+
+    @Benchmark
+    public MessageLite parseFromByteString() throws InvalidProtocolBufferException {
+        return parser.parseFrom(encodedString);
+    }
+
+    @Benchmark
+    public MessageLite parseFromHeapBuffer() throws InvalidProtocolBufferException {
+        return parser.parseFrom(encodedHeap.duplicate());
+    }
+
+    @Benchmark
+    public MessageLite parseFromDirectBuffer() throws InvalidProtocolBufferException {
+        return parser.parseFrom(encodedDirect.duplicate());
+    }
+}
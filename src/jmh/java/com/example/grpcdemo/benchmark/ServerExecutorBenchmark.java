@@ -0,0 +1,117 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.GetUserRequest;
+import com.example.grpc.UpdateUserRequest;
+import com.example.grpc.UserServiceGrpc;
+import com.example.grpcdemo.config.ServerExecutor;
+import com.example.grpcdemo.persistence.DurableUserStore;
+import com.example.grpcdemo.persistence.Durability;
+import com.example.grpcdemo.service.PreEncodedUserService;
+import com.example.grpcdemo.service.UserServiceImpl;
+import com.example.grpcdemo.store.HeapUserStore;
+import com.google.protobuf.MessageLite;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end GetUser/UpdateUser mix over loopback for each handler executor
+ *
+ * The server listens on a local port and the clients share one channel, so
+ * every call crosses the real transport. Updates go through a write-ahead
+ * log in SYNC mode, so writePercent sets the share of handlers that block
+ * on an fsync; reads never block. Throughput mode gives calls per second,
+ * sample mode gives the latency percentiles (p0.99 is the p99).
+ * VIRTUAL fails its setup below Java 21 and the other executors still run.
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="ServerExecutorBenchmark"
+ * Point -Dwal.dir at a real disk; tmpfs makes the blocking mix free.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(32)
+public class ServerExecutorBenchmark {
+
+    private static final int USER_COUNT = 10_000;
+
+    @Param({"DEFAULT", "VIRTUAL", "FIXED", "FORK_JOIN", "DIRECT"})
+    public ServerExecutor executor;
+
+    @Param({"0", "10"})
+    public int writePercent;
+
+    // Pool size for FIXED and FORK_JOIN; 0 means one per processor, as grpc.server.executor.threads
+    @Param({"0"})
+    public int threads;
+
+    private Path dir;
+    private DurableUserStore store;
+    private UserServiceImpl service;
+    private ExecutorService handlerExecutor;
+    private Server server;
+    private ManagedChannel channel;
+    private UserServiceGrpc.UserServiceBlockingStub stub;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        BenchmarkSupport.quietLogging();
+        String base = System.getProperty("wal.dir", System.getProperty("java.io.tmpdir"));
+        dir = Files.createTempDirectory(Path.of(base), "executor-bench");
+        store = DurableUserStore.open(new HeapUserStore(USER_COUNT), dir, Durability.SYNC, 0);
+        for (int id = 1; id <= USER_COUNT; id++) {
+            store.put(BenchmarkSupport.user(id));
+        }
+        service = BenchmarkSupport.service(store);
+
+        ServerBuilder<?> builder = ServerBuilder.forPort(0).addService(PreEncodedUserService.bind(service));
+        handlerExecutor = executor.configure(builder, threads);
+        server = builder.build().start();
+        channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        stub = UserServiceGrpc.newBlockingStub(channel);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException, IOException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        if (handlerExecutor != null) {
+            handlerExecutor.shutdownNow();
+        }
+        service.shutdown();
+        store.close();
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public MessageLite call() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int id = random.nextInt(USER_COUNT) + 1;
+        if (random.nextInt(100) < writePercent) {
+            return stub.updateUser(UpdateUserRequest.newBuilder()
+                    .setId(id)
+                    .setName("Benchmark User " + id)
+                    .setEmail("user" + id + "@example.com")
+                    .setAge(20 + random.nextInt(50))
+                    .setDepartment("Department " + id % 16)
+                    .build());
+        }
+        return stub.getUser(GetUserRequest.newBuilder().setId(id).build());
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpcdemo.config.StoreMode;
+import com.example.grpcdemo.service.UserServiceImpl;
+import com.example.grpcdemo.store.UserStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retained heap and direct memory per user of each grpc.store.mode, split
+ * into the store itself and the indexes UserServiceImpl builds over it
+ *
+ * Each invocation fills a store of the given mode with BenchmarkSupport
+ * users and builds a service over it with the indexes and response cache
+ * UserStoreConfig picks for the mode. After each iteration the heap and
+ * direct memory in use are measured after full collections three times:
+ * with the service, with only the store, and with neither. The differences
+ * are printed per user, with the total heap in MB, so a heap that does not
+ * grow with the user count shows as a constant total. The score itself is
+ * only the time to fill the store and build the indexes.
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="StoreFootprintBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+// Serial GC makes System.gc() a full, compacting collection, so used heap is exact
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UseSerialGC", "-Xmx3g", "-XX:MaxDirectMemorySize=2g"})
+public class StoreFootprintBenchmark {
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final BufferPoolMXBean DIRECT = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)
+            .stream().filter(pool -> pool.getName().equals("direct")).findFirst().orElseThrow();
+
+    @Param({"HEAP", "OFFHEAP"})
+    public StoreMode storeMode;
+
+    @Param({"100000", "1000000", "3000000"})
+    public int users;
+
+    private UserStore store;
+    private UserServiceImpl service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.quietLogging();
+    }
+
+    @Benchmark
+    public Object fill() {
+        store = BenchmarkSupport.populatedStore(storeMode, users);
+        service = BenchmarkSupport.service(storeMode, store);
+        return service;
+    }
+
+    @TearDown(Level.Iteration)
+    public void measure() throws InterruptedException {
+        service.shutdown();
+        long[] withService = usedAfterGc();
+        service = null;
+        long[] withStore = usedAfterGc();
+        store = null;
+        long[] empty = usedAfterGc();
+        System.out.printf("%n%s, %d users: heap %.1f MB; heap per user: store %.1f, service indexes %.1f;"
+                        + " direct per user: store %.1f, service indexes %.1f bytes%n",
+                storeMode, users, (withService[0] - empty[0]) / 1048576.0,
+                (withStore[0] - empty[0]) / (double) users, (withService[0] - withStore[0]) / (double) users,
+                (withStore[1] - empty[1]) / (double) users, (withService[1] - withStore[1]) / (double) users);
+    }
+
+    /**
+     * Heap and direct memory in use once collections have freed what they can
+     */
+    private static long[] usedAfterGc() throws InterruptedException {
+        long direct = -1;
+        // Direct buffers are released by a cleaner after the collection, so wait for the count to settle
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+            Thread.sleep(50);
+            long now = DIRECT.getMemoryUsed();
+            if (now == direct) {
+                break;
+            }
+            direct = now;
+        }
+        return new long[]{MEMORY.getHeapMemoryUsage().getUsed(), direct};
+    }
+}
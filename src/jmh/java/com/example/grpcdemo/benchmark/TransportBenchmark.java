@@ -0,0 +1,260 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.CreateUserRequest;
+import com.example.grpc.CreateUserResponse;
+import com.example.grpc.GetUserRequest;
+import com.example.grpc.GetUserResponse;
+import com.example.grpc.ListUsersRequest;
+import com.example.grpc.User;
+import com.example.grpc.UserServiceGrpc;
+import com.example.grpcdemo.service.PreEncodedUserService;
+import com.example.grpcdemo.service.UserServiceImpl;
+import com.example.grpcdemo.store.UserStore;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The four call types end to end, with and without the gRPC stack between
+ * the client and UserServiceImpl
+ *
+ * The same calls are made on the service's own async methods (direct), on
+ * UserServiceGrpc stubs over the in-process transport, and on stubs over a
+ * Netty server on loopback. Every call completes through a StreamObserver
+ * and is waited for, so the three differ only in what sits in between:
+ * 1. direct: the handler, store and indexes alone
+ * 2. inprocess: plus calls, stubs, executor hand-offs and flow control.
+ *    Protobuf messages are handed over as objects, but the methods
+ *    PreEncodedUserService binds (GetUser, ChatWithUsers) answer with
+ *    bytes through PreEncodedMarshaller, which the client stub parses, so
+ *    their in-process numbers include decoding the responses
+ * 3. netty: plus serialization, HTTP/2 framing and the loopback socket
+ *
+ * Unary is GetUser, server streaming is ListUsers, client streaming is
+ * CreateMultipleUsers and bidi is ChatWithUsers; each stream carries
+ * messagesPerStream messages. Users created by the client-streaming calls
+ * are removed after each iteration. Compression is left off so the wire
+ * cost is the transport's alone. The Netty path takes about ten seconds
+ * of warmup before its latency settles, hence the long warmup.
+ *
+ * Throughput mode gives calls per millisecond and sample mode the latency
+ * percentiles. main() runs both and prints the mean latency of each call
+ * type split into handler, gRPC stack (inprocess - direct) and wire
+ * (netty - inprocess).
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.main=com.example.grpcdemo.benchmark.TransportBenchmark
+ * or with -Djmh.args="TransportBenchmark" for the JMH tables alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportBenchmark {
+
+    @Param({"direct", "inprocess", "netty"})
+    public String transport;
+
+    @Param({"100"})
+    public int messagesPerStream;
+
+    @Param({"100000"})
+    public int userCount;
+
+    private UserStore store;
+    private UserServiceImpl service;
+    private Server server;
+    private ManagedChannel channel;
+    private final AtomicLong created = new AtomicLong();
+    private ListUsersRequest listUsers;
+
+    private BiConsumer<GetUserRequest, StreamObserver<GetUserResponse>> getUser;
+    private BiConsumer<ListUsersRequest, StreamObserver<User>> listUsersCall;
+    private Function<StreamObserver<CreateUserResponse>, StreamObserver<CreateUserRequest>> createMultipleUsers;
+    private Function<StreamObserver<GetUserResponse>, StreamObserver<GetUserRequest>> chatWithUsers;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        BenchmarkSupport.quietLogging();
+        store = BenchmarkSupport.populatedStore(userCount);
+        service = BenchmarkSupport.service(store);
+        listUsers = ListUsersRequest.newBuilder().setPage(1).setPageSize(messagesPerStream).build();
+
+        switch (transport) {
+            case "direct":
+                getUser = service::getUser;
+                listUsersCall = service::listUsers;
+                createMultipleUsers = service::createMultipleUsers;
+                chatWithUsers = service::chatWithUsers;
+                return;
+            case "inprocess":
+                String name = InProcessServerBuilder.generateName();
+                server = InProcessServerBuilder.forName(name)
+                        .addService(PreEncodedUserService.bind(service))
+                        .build()
+                        .start();
+                channel = InProcessChannelBuilder.forName(name).build();
+                break;
+            case "netty":
+                server = ServerBuilder.forPort(0)
+                        .addService(PreEncodedUserService.bind(service))
+                        .build()
+                        .start();
+                channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+        UserServiceGrpc.UserServiceStub stub = UserServiceGrpc.newStub(channel);
+        getUser = stub::getUser;
+        listUsersCall = stub::listUsers;
+        createMultipleUsers = stub::createMultipleUsers;
+        chatWithUsers = stub::chatWithUsers;
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeCreatedUsers() {
+        BenchmarkSupport.removeUsersAbove(userCount, service, store);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        if (channel != null) {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        service.shutdown();
+    }
+
+    @Benchmark
+    public int unary() throws InterruptedException {
+        Responses<GetUserResponse> responses = new Responses<>();
+        getUser.accept(GetUserRequest.newBuilder().setId(randomId()).build(), responses);
+        return responses.await();
+    }
+
+    @Benchmark
+    public int serverStreaming() throws InterruptedException {
+        Responses<User> responses = new Responses<>();
+        listUsersCall.accept(listUsers, responses);
+        return responses.await();
+    }
+
+    @Benchmark
+    public int clientStreaming() throws InterruptedException {
+        Responses<CreateUserResponse> responses = new Responses<>();
+        StreamObserver<CreateUserRequest> requests = createMultipleUsers.apply(responses);
+        for (int i = 0; i < messagesPerStream; i++) {
+            long n = created.incrementAndGet();
+            requests.onNext(CreateUserRequest.newBuilder()
+                    .setName("Created User " + n)
+                    .setEmail("created" + n + "@example.com")
+                    .setAge(20 + (int) (n % 50))
+                    .setDepartment("Department " + n % 16)
+                    .build());
+        }
+        requests.onCompleted();
+        return responses.await();
+    }
+
+    @Benchmark
+    public int bidiStreaming() throws InterruptedException {
+        Responses<GetUserResponse> responses = new Responses<>();
+        StreamObserver<GetUserRequest> requests = chatWithUsers.apply(responses);
+        for (int i = 0; i < messagesPerStream; i++) {
+            requests.onNext(GetUserRequest.newBuilder().setId(randomId()).build());
+        }
+        requests.onCompleted();
+        return responses.await();
+    }
+
+    private int randomId() {
+        return ThreadLocalRandom.current().nextInt(userCount) + 1;
+    }
+
+    /**
+     * Counts the responses of one call and lets the caller wait for it to end
+     */
+    private static final class Responses<T> implements StreamObserver<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int count;
+        private Throwable error;
+
+        @Override
+        public void onNext(T value) {
+            count++;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            done.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            done.countDown();
+        }
+
+        int await() throws InterruptedException {
+            if (!done.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Call did not complete within 10 seconds");
+            }
+            if (error != null) {
+                throw new IllegalStateException(error);
+            }
+            return count;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(TransportBenchmark.class.getSimpleName())
+                .build()).run();
+
+        // Mean latency in microseconds by call type, then transport
+        Map<String, Map<String, Double>> means = new TreeMap<>();
+        for (RunResult result : results) {
+            if (result.getParams().getMode() != Mode.SampleTime) {
+                continue;
+            }
+            String benchmark = result.getParams().getBenchmark();
+            String call = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+            means.computeIfAbsent(call, c -> new TreeMap<>())
+                    .put(result.getParams().getParam("transport"), result.getPrimaryResult().getScore() * 1_000);
+        }
+        System.out.printf("%nMean latency split by layer (us)%n%-16s %10s %10s %10s %10s%n",
+                "call", "handler", "gRPC stack", "wire", "total");
+        means.forEach((call, byTransport) -> {
+            Double direct = byTransport.get("direct");
+            Double inProcess = byTransport.get("inprocess");
+            Double netty = byTransport.get("netty");
+            if (direct == null || inProcess == null || netty == null) {
+                return;
+            }
+            System.out.printf("%-16s %10.1f %10.1f %10.1f %10.1f%n",
+                    call, direct, inProcess - direct, netty - inProcess, netty);
+        });
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.CreateUserRequest;
+import com.example.grpc.CreateUserResponse;
+import com.example.grpc.DeleteUserRequest;
+import com.example.grpc.DeleteUserResponse;
+import com.example.grpc.GetUserRequest;
+import com.example.grpc.GetUserResponse;
+import com.example.grpc.ListUsersRequest;
+import com.example.grpc.UpdateUserRequest;
+import com.example.grpc.UpdateUserResponse;
+import com.example.grpc.User;
+import com.example.grpc.UserStatus;
+import com.example.grpcdemo.config.StoreMode;
+import com.example.grpcdemo.service.UserServiceImpl;
+import com.example.grpcdemo.store.UserStore;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The unary handlers and ListUsers called directly on UserServiceImpl, over
+ * stores of 1K to 10M users, from 1 to 64 threads
+ *
+ * Observers only keep the last response, so what is measured is the
+ * handler, store and indexes without gRPC. CreateUser runs against a store
+ * trimmed back to userCount after each iteration. DeleteUser deletes users
+ * created for it before each iteration, so it is measured as the time for
+ * a batch of DELETE_BATCH deletes per thread. The heap store needs a heap
+ * of about 6 GB for 10M users (-jvmArgsAppend -Xmx8g); -p storeMode=OFFHEAP
+ * measures the off-heap store instead, set up as UserStoreConfig does: its
+ * indexes in direct memory and no GetUser response cache.
+ *
+ * Run the whole thread sweep, with the GC profiler's allocation and
+ * collection counts per operation, with:
+ * mvn -Pbenchmarks compile exec:exec -Djmh.main=com.example.grpcdemo.benchmark.UserServiceBenchmark
+ * Narrow it in -Djmh.args as usual, e.g. -Djmh.args="-p userCount=100000".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int REQUEST_SETS = 1024;
+    static final int DELETE_BATCH = 10_000;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int userCount;
+
+    @Param({"HEAP"})
+    public StoreMode storeMode;
+
+    @Param({"100"})
+    public int pageSize;
+
+    UserStore store;
+    UserServiceImpl service;
+    // Keeps the emails of users created by the benchmarks unique across threads and iterations
+    final AtomicLong created = new AtomicLong();
+    private ListUsersRequest listAll;
+    private ListUsersRequest listDepartment;
+
+    @Setup(Level.Trial)
+    public void start() {
+        BenchmarkSupport.quietLogging();
+        store = BenchmarkSupport.populatedStore(storeMode, userCount);
+        service = BenchmarkSupport.service(storeMode, store);
+        listAll = ListUsersRequest.newBuilder().setPage(1).setPageSize(pageSize).build();
+        // One of the 16 departments BenchmarkSupport spreads users over
+        listDepartment = listAll.toBuilder().setDepartment("Department 7").build();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        service.shutdown();
+    }
+
+    /**
+     * Per-thread requests for random existing users
+     */
+    @State(Scope.Thread)
+    public static class Requests {
+        GetUserRequest[] gets;
+        UpdateUserRequest[] updates;
+        int next;
+
+        @Setup(Level.Trial)
+        public void build(UserServiceBenchmark benchmark) {
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            gets = new GetUserRequest[REQUEST_SETS];
+            updates = new UpdateUserRequest[REQUEST_SETS];
+            for (int i = 0; i < REQUEST_SETS; i++) {
+                User user = BenchmarkSupport.user(random.nextInt(benchmark.userCount) + 1);
+                gets[i] = GetUserRequest.newBuilder().setId(user.getId()).build();
+                // Keeps the user's own email so the email index is only read
+                updates[i] = UpdateUserRequest.newBuilder()
+                        .setId(user.getId())
+                        .setName(user.getName() + " (updated)")
+                        .setEmail(user.getEmail())
+                        .setAge(user.getAge() + 1)
+                        .setDepartment(user.getDepartment())
+                        .setStatus(UserStatus.ACTIVE)
+                        .build();
+            }
+        }
+
+        int nextIndex() {
+            int index = next;
+            next = (index + 1) % REQUEST_SETS;
+            return index;
+        }
+    }
+
+    /**
+     * Removes the users createUser added, so each iteration starts at userCount
+     */
+    @State(Scope.Benchmark)
+    public static class Creations {
+        @TearDown(Level.Iteration)
+        public void trim(UserServiceBenchmark benchmark) {
+            BenchmarkSupport.removeUsersAbove(benchmark.userCount, benchmark.service, benchmark.store);
+        }
+    }
+
+    /**
+     * Users created for one thread's next batch of deletes
+     */
+    @State(Scope.Thread)
+    public static class Victims {
+        final DeleteUserRequest[] deletes = new DeleteUserRequest[DELETE_BATCH];
+        int next;
+
+        @Setup(Level.Iteration)
+        public void create(UserServiceBenchmark benchmark) {
+            Last<CreateUserResponse> response = new Last<>();
+            for (int i = 0; i < DELETE_BATCH; i++) {
+                benchmark.service.createUser(benchmark.newUser(), response);
+                deletes[i] = DeleteUserRequest.newBuilder().setId(response.value.getUser().getId()).build();
+            }
+            next = 0;
+        }
+    }
+
+    CreateUserRequest newUser() {
+        long n = created.incrementAndGet();
+        return CreateUserRequest.newBuilder()
+                .setName("Created User " + n)
+                .setEmail("created" + n + "@example.com")
+                .setAge(20 + (int) (n % 50))
+                .setDepartment("Department " + n % 16)
+                .build();
+    }
+
+    @Benchmark
+    public CreateUserResponse createUser(Creations creations, Observers observers) {
+        service.createUser(newUser(), observers.created);
+        return observers.created.value;
+    }
+
+    @Benchmark
+    public GetUserResponse getUser(Requests requests, Observers observers) {
+        service.getUser(requests.gets[requests.nextIndex()], observers.got);
+        return observers.got.value;
+    }
+
+    @Benchmark
+    public UpdateUserResponse updateUser(Requests requests, Observers observers) {
+        service.updateUser(requests.updates[requests.nextIndex()], observers.updated);
+        return observers.updated.value;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = DELETE_BATCH)
+    @Measurement(iterations = 10, batchSize = DELETE_BATCH)
+    public DeleteUserResponse deleteUser(Victims victims, Observers observers) {
+        service.deleteUser(victims.deletes[victims.next++], observers.deleted);
+        return observers.deleted.value;
+    }
+
+    @Benchmark
+    public int listUsers(Observers observers) {
+        service.listUsers(listAll, observers.listed);
+        return observers.listed.count;
+    }
+
+    @Benchmark
+    public int listUsersByDepartment(Observers observers) {
+        service.listUsers(listDepartment, observers.listed);
+        return observers.listed.count;
+    }
+
+    /**
+     * One observer per response type for each thread
+     */
+    @State(Scope.Thread)
+    public static class Observers {
+        final Last<CreateUserResponse> created = new Last<>();
+        final Last<GetUserResponse> got = new Last<>();
+        final Last<UpdateUserResponse> updated = new Last<>();
+        final Last<DeleteUserResponse> deleted = new Last<>();
+        final Last<User> listed = new Last<>();
+    }
+
+    /**
+     * Observer that keeps the last response and counts responses; an error fails the benchmark
+     */
+    static final class Last<T> implements StreamObserver<T> {
+        T value;
+        int count;
+
+        @Override
+        public void onNext(T value) {
+            this.value = value;
+            count++;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        for (int threads : THREAD_COUNTS) {
+            new Runner(new OptionsBuilder()
+                    .parent(commandLine)
+                    .include(UserServiceBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build()).run();
+        }
+    }
+}
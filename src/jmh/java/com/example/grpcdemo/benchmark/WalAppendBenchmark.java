@@ -0,0 +1,68 @@
+package com.example.grpcdemo.benchmark;
+
+import com.example.grpc.User;
+import com.example.grpcdemo.persistence.DurableUserStore;
+import com.example.grpcdemo.persistence.Durability;
+import com.example.grpcdemo.store.HeapUserStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write throughput and latency of the durable store under each durability mode
+ *
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="WalAppendBenchmark"
+ * Point -Dwal.dir at the disk under test; the default is the temp directory,
+ * which may be tmpfs and make SYNC look free. GROUP_COMMIT throughput is
+ * bounded by threads / groupCommitMillis, so it only pays off where an
+ * fsync costs more than the commit interval divided by the writer count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(16)
+public class WalAppendBenchmark {
+
+    // Writes cycle over this many IDs so the in-memory side stays a fixed size
+    private static final int KEY_SPACE = 100_000;
+
+    @Param({"SYNC", "GROUP_COMMIT", "OS_BUFFERED"})
+    public Durability durability;
+
+    @Param({"2"})
+    public long groupCommitMillis;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+    private Path dir;
+    private DurableUserStore store;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        String base = System.getProperty("wal.dir", System.getProperty("java.io.tmpdir"));
+        dir = Files.createTempDirectory(Path.of(base), "wal-bench");
+        store = DurableUserStore.open(new HeapUserStore(KEY_SPACE), dir, durability, groupCommitMillis);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        store.close();
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public User put() {
+        return store.put(BenchmarkSupport.user(sequence.getAndIncrement() % KEY_SPACE + 1));
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.grpcdemo.client;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Channel over several connections to the same target
+ *
+ * Each member is its own ManagedChannel, so it has its own TCP connection,
+ * HTTP/2 stream limit and event-loop thread. A call goes to the member
+ * with the fewest calls in flight, counted from start() until the call
+ * closes, so a connection stuck behind slow or streaming calls gets no new
+ * work while others are idle. It is a Channel, so generated stubs are
+ * built on it exactly as on a single channel:
+ * UserServiceGrpc.newBlockingStub(pool).
+ */
+public final class ChannelPool extends Channel {
+
+    private final ManagedChannel[] channels;
+    private final AtomicInteger[] outstanding;
+    // Where the least-loaded scan starts, so ties rotate instead of piling onto member 0
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    /**
+     * @param factory builds member i; every member should point at the same target
+     */
+    public ChannelPool(int size, IntFunction<ManagedChannel> factory) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Channel pool size must be positive: " + size);
+        }
+        channels = new ManagedChannel[size];
+        outstanding = new AtomicInteger[size];
+        for (int i = 0; i < size; i++) {
+            channels[i] = factory.apply(i);
+            outstanding[i] = new AtomicInteger();
+        }
+    }
+
+    public int size() {
+        return channels.length;
+    }
+
+    /**
+     * Calls in flight on each member, for monitoring
+     */
+    public int[] outstanding() {
+        int[] counts = new int[outstanding.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = outstanding[i].get();
+        }
+        return counts;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions options) {
+        int member = leastOutstanding();
+        AtomicInteger counter = outstanding[member];
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(channels[member].newCall(method, options)) {
+            @Override
+            public void start(Listener<RespT> listener, Metadata headers) {
+                counter.incrementAndGet();
+                try {
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(listener) {
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            counter.decrementAndGet();
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                } catch (RuntimeException e) {
+                    counter.decrementAndGet();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private int leastOutstanding() {
+        int size = channels.length;
+        if (size == 1) {
+            return 0;
+        }
+        int start = Math.floorMod(nextStart.getAndIncrement(), size);
+        int best = start;
+        int bestCount = outstanding[start].get();
+        for (int i = 1; i < size && bestCount > 0; i++) {
+            int member = (start + i) % size;
+            int count = outstanding[member].get();
+            if (count < bestCount) {
+                best = member;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public String authority() {
+        return channels[0].authority();
+    }
+
+    public ChannelPool shutdown() {
+        for (ManagedChannel channel : channels) {
+            channel.shutdown();
+        }
+        return this;
+    }
+
+    public ChannelPool shutdownNow() {
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow();
+        }
+        return this;
+    }
+
+    /**
+     * Waits for every member to terminate, sharing one timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ManagedChannel channel : channels) {
+            if (!channel.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
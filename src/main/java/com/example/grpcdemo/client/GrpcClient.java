@@ -1,11 +1,15 @@
 package com.example.grpcdemo.client;
 
 import com.example.grpc.*;
-import io.grpc.ManagedChannel;
+import com.example.grpcdemo.compression.CompressionCodecs;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,17 +20,35 @@ import java.util.concurrent.TimeUnit;
  * 2. Server Streaming RPC
  * 3. Client Streaming RPC
  * 4. Bidirectional Streaming RPC
+ *
+ * Stubs are built on a ChannelPool, so concurrent calls spread over
+ * several connections instead of sharing one. For capacity tests, main()
+ * runs the LoadGenerator instead when its first argument is "load".
+ *
+ * Emails must be unique on the server, so the demo tags every address it
+ * creates with a per-run suffix and can be run again against the same
+ * server, or after a restart that replays the write-ahead log.
  */
 public class GrpcClient {
 
-    private final ManagedChannel channel;
+    private final ChannelPool channel;
     private final UserServiceGrpc.UserServiceBlockingStub blockingStub;
     private final UserServiceGrpc.UserServiceStub asyncStub;
+    private final String runId = Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xFFFFFFFFL);
 
     public GrpcClient(String host, int port) {
-        this.channel = ManagedChannelBuilder.forAddress(host, port)
+        this(host, port, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param connections channels in the pool, each with its own connection to the server
+     */
+    public GrpcClient(String host, int port, int connections) {
+        this.channel = new ChannelPool(connections, i -> ManagedChannelBuilder.forAddress(host, port)
                 .usePlaintext() // For demo purposes only - use TLS in production
-                .build();
+                // Lets the server answer large responses with snappy as well as gzip
+                .decompressorRegistry(CompressionCodecs.standard().decompressors())
+                .build());
         this.blockingStub = UserServiceGrpc.newBlockingStub(channel);
         this.asyncStub = UserServiceGrpc.newStub(channel);
     }
@@ -35,6 +57,13 @@ public class GrpcClient {
         channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
     }
 
+    /**
+     * Address with this run's suffix, so reruns do not collide with users created before
+     */
+    private String email(String localPart) {
+        return localPart + "+" + runId + "@example.com";
+    }
+
     /**
      * Test Unary RPC operations
      */
@@ -44,7 +73,7 @@ public class GrpcClient {
         // Create a user
         CreateUserRequest createRequest = CreateUserRequest.newBuilder()
                 .setName("Alice Johnson")
-                .setEmail("alice.johnson@example.com")
+                .setEmail(email("alice.johnson"))
                 .setAge(25)
                 .setDepartment("Engineering")
                 .build();
@@ -61,18 +90,33 @@ public class GrpcClient {
         GetUserResponse getResponse = blockingStub.getUser(getRequest);
         System.out.println("Retrieved user: " + getResponse.getUser().getName());
 
-        // Update the user
+        // Look the same user up by email, in any case
+        GetUserResponse byEmail = blockingStub.getUserByEmail(GetUserByEmailRequest.newBuilder()
+                .setEmail(email("Alice.Johnson").toUpperCase(Locale.ROOT))
+                .build());
+        System.out.println("Retrieved user by email: " + byEmail.getUser().getName());
+
+        // Update the user, only if nobody else changed it since it was read
         UpdateUserRequest updateRequest = UpdateUserRequest.newBuilder()
                 .setId(createResponse.getUser().getId())
                 .setName("Alice Johnson-Smith")
-                .setEmail("alice.smith@example.com")
+                .setEmail(email("alice.smith"))
                 .setAge(26)
                 .setDepartment("Engineering")
                 .setStatus(UserStatus.ACTIVE)
+                .setExpectedVersion(getResponse.getUser().getVersion())
                 .build();
 
         UpdateUserResponse updateResponse = blockingStub.updateUser(updateRequest);
-        System.out.println("Updated user: " + updateResponse.getUser().getName());
+        System.out.println("Updated user: " + updateResponse.getUser().getName()
+                + " (version " + updateResponse.getUser().getVersion() + ")");
+
+        // Repeating the same conditional update is now stale
+        try {
+            blockingStub.updateUser(updateRequest);
+        } catch (StatusRuntimeException e) {
+            System.out.println("Stale update rejected: " + e.getStatus().getCode());
+        }
     }
 
     /**
@@ -93,6 +137,26 @@ public class GrpcClient {
         });
     }
 
+    /**
+     * Test keyset pagination with page tokens
+     */
+    public void testPagination() {
+        System.out.println("\n=== Testing Keyset Pagination ===");
+
+        ListUsersRequest.Builder request = ListUsersRequest.newBuilder()
+                .setPageSize(2);
+        int pageNumber = 0;
+        ListUsersResponse response;
+        do {
+            response = blockingStub.listUsersPage(request.build());
+            pageNumber++;
+            for (User user : response.getUsersList()) {
+                System.out.println("  Page " + pageNumber + ": " + user.getName() + " (ID: " + user.getId() + ")");
+            }
+            request.setPageToken(response.getNextPageToken());
+        } while (!response.getNextPageToken().isEmpty());
+    }
+
     /**
      * Test Client Streaming RPC
      */
@@ -123,7 +187,7 @@ public class GrpcClient {
 
         // Send multiple user creation requests
         String[] names = {"Bob Wilson", "Carol Davis", "David Brown"};
-        String[] emails = {"bob.wilson@example.com", "carol.davis@example.com", "david.brown@example.com"};
+        String[] emails = {email("bob.wilson"), email("carol.davis"), email("david.brown")};
         String[] departments = {"Marketing", "Sales", "HR"};
 
         for (int i = 0; i < names.length; i++) {
@@ -143,6 +207,48 @@ public class GrpcClient {
         finishLatch.await(10, TimeUnit.SECONDS);
     }
 
+    /**
+     * Test chunked bulk import with progress acks
+     */
+    public void testImport() throws InterruptedException {
+        System.out.println("\n=== Testing Chunked Import ===");
+
+        CountDownLatch finishLatch = new CountDownLatch(1);
+
+        StreamObserver<CreateUserRequest> requestObserver = asyncStub.importUsers(
+                new StreamObserver<ImportUsersProgress>() {
+                    @Override
+                    public void onNext(ImportUsersProgress progress) {
+                        System.out.println("Imported " + progress.getTotalCount() + " users so far (IDs "
+                                + progress.getFirstId() + "-" + progress.getLastId() + ")");
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        System.err.println("Error in import: " + t.getMessage());
+                        finishLatch.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        System.out.println("Import completed");
+                        finishLatch.countDown();
+                    }
+                });
+
+        for (int i = 1; i <= 2500; i++) {
+            requestObserver.onNext(CreateUserRequest.newBuilder()
+                    .setName("Imported User " + i)
+                    .setEmail(email("imported" + i))
+                    .setAge(20 + i % 40)
+                    .setDepartment("Operations")
+                    .build());
+        }
+
+        requestObserver.onCompleted();
+        finishLatch.await(30, TimeUnit.SECONDS);
+    }
+
     /**
      * Test Bidirectional Streaming RPC
      */
@@ -190,6 +296,45 @@ public class GrpcClient {
         finishLatch.await(10, TimeUnit.SECONDS);
     }
 
+    /**
+     * Test Bidirectional Streaming RPC with coalesced batch responses
+     */
+    public void testBatchedBidirectionalStreaming() throws InterruptedException {
+        System.out.println("\n=== Testing Batched Bidirectional Streaming RPC ===");
+
+        CountDownLatch finishLatch = new CountDownLatch(1);
+
+        StreamObserver<GetUserRequest> requestObserver = asyncStub.chatWithUsersBatched(
+                new StreamObserver<BatchGetUsersResponse>() {
+                    @Override
+                    public void onNext(BatchGetUsersResponse response) {
+                        System.out.println("Received batch of " + response.getUsersCount() + " users, missing IDs: "
+                                + response.getMissingIdsList());
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        System.err.println("Error in batched bidirectional streaming: " + t.getMessage());
+                        finishLatch.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        System.out.println("Batched bidirectional streaming completed");
+                        finishLatch.countDown();
+                    }
+                });
+
+        // Sent back to back, so lookups that queue up behind each other share a response
+        for (int userId = 1; userId <= 50; userId++) {
+            requestObserver.onNext(GetUserRequest.newBuilder().setId(userId).build());
+        }
+        System.out.println("Requested user info for IDs 1-50");
+
+        requestObserver.onCompleted();
+        finishLatch.await(10, TimeUnit.SECONDS);
+    }
+
     /**
      * Run all tests
      */
@@ -200,8 +345,11 @@ public class GrpcClient {
         try {
             testUnaryRpc();
             testServerStreaming();
+            testPagination();
             testClientStreaming();
+            testImport();
             testBidirectionalStreaming();
+            testBatchedBidirectionalStreaming();
 
             System.out.println("\n=====================================");
             System.out.println("All tests completed successfully!");
@@ -213,7 +361,15 @@ public class GrpcClient {
         }
     }
 
+    /**
+     * Runs the functional tests, or with "load" as the first argument the
+     * load generator, e.g. GrpcClient load --rpc=GetUser --rate=5000
+     */
     public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("load")) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         GrpcClient client = new GrpcClient("localhost", 9090);
         client.runAllTests();
     }
@@ -0,0 +1,106 @@
+package com.example.grpcdemo.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the key, an index into the load generator's key space, for each operation
+ */
+public interface KeyDistribution {
+
+    /**
+     * Next key in [0, size()); safe to call from many threads
+     */
+    int next();
+
+    int size();
+
+    /**
+     * Every key equally likely
+     */
+    static KeyDistribution uniform(int size) {
+        checkSize(size);
+        return new KeyDistribution() {
+            @Override
+            public int next() {
+                return ThreadLocalRandom.current().nextInt(size);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Zipfian: key k is drawn with probability proportional to 1 / (k + 1)^exponent,
+     * so key 0 is the hottest and a few keys take most of the traffic
+     *
+     * @param exponent skew in (0, 1); 0.99 is the usual "hot key" shape
+     */
+    static KeyDistribution zipfian(int size, double exponent) {
+        checkSize(size);
+        if (!(exponent > 0 && exponent < 1)) {
+            throw new IllegalArgumentException("Zipfian exponent must be in (0, 1): " + exponent);
+        }
+        return new Zipfian(size, exponent);
+    }
+
+    private static void checkSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Key space must be positive: " + size);
+        }
+    }
+
+    /**
+     * Gray et al.'s rejection-free Zipfian generator ("Quickly Generating
+     * Billion-Record Synthetic Databases", as used by YCSB): one random
+     * draw and a pow() per key after an O(n) setup that sums the zeta
+     * constant once
+     */
+    final class Zipfian implements KeyDistribution {
+        private final int size;
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+        private final double secondKeyThreshold;
+
+        private Zipfian(int size, double theta) {
+            this.size = size;
+            this.theta = theta;
+            this.alpha = 1 / (1 - theta);
+            this.zetaN = zeta(size, theta);
+            double zeta2 = zeta(Math.min(size, 2), theta);
+            this.eta = (1 - Math.pow(2.0 / size, 1 - theta)) / (1 - zeta2 / zetaN);
+            this.secondKeyThreshold = 1 + Math.pow(0.5, theta);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        @Override
+        public int next() {
+            double u = ThreadLocalRandom.current().nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < secondKeyThreshold && size > 1) {
+                return 1;
+            }
+            int key = (int) (size * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(key, size - 1);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
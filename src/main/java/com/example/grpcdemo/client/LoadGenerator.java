@@ -0,0 +1,631 @@
+package com.example.grpcdemo.client;
+
+import com.example.grpc.*;
+import com.example.grpcdemo.compression.CompressionCodecs;
+import io.grpc.Channel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Load generator for capacity tests: drives one UserService RPC against a
+ * running server and reports latency percentiles from HdrHistogram
+ *
+ * Two pacing modes:
+ * 1. Open loop (--rate): operations are scheduled at fixed intervals
+ *    whatever the server does, and latency is measured from each
+ *    operation's scheduled start. A stall delays every operation that was
+ *    due during it and is charged to each of them, so the percentiles are
+ *    free of coordinated omission.
+ * 2. Closed loop (--concurrency): a fixed number of operations in flight,
+ *    each started when the previous one finishes. A stall stalls the
+ *    generator too, so it records one slow operation where an open-loop
+ *    client would have seen many; with --expected-interval each latency is
+ *    recorded with HdrHistogram's correction for the operations that
+ *    interval says were skipped.
+ *
+ * Response time is measured from the scheduled start and service time from
+ * when the call was actually issued; without correction they only differ
+ * when the generator itself falls behind.
+ *
+ * Keys index a key space of --key-space users, or of the --preload users
+ * imported before the run, chosen uniformly or Zipfian (--keys=zipf).
+ * Streaming RPCs count a whole stream of --stream-messages messages (or a
+ * --batch-size page) as one operation.
+ *
+ * Run with: GrpcClient load --rpc=GetUser --rate=5000 --duration=30s --preload=10000 --keys=zipf
+ */
+public final class LoadGenerator {
+
+    public enum Rpc {
+        CREATE_USER("CreateUser"),
+        GET_USER("GetUser"),
+        GET_USER_BY_EMAIL("GetUserByEmail"),
+        BATCH_GET_USERS("BatchGetUsers"),
+        UPDATE_USER("UpdateUser"),
+        /** Only the first delete of each key succeeds; later ones count as NOT_FOUND errors */
+        DELETE_USER("DeleteUser"),
+        LIST_USERS_PAGE("ListUsersPage"),
+        LIST_USERS("ListUsers"),
+        CREATE_MULTIPLE_USERS("CreateMultipleUsers"),
+        IMPORT_USERS("ImportUsers"),
+        CHAT_WITH_USERS("ChatWithUsers"),
+        CHAT_WITH_USERS_BATCHED("ChatWithUsersBatched");
+
+        private final String methodName;
+
+        Rpc(String methodName) {
+            this.methodName = methodName;
+        }
+
+        /**
+         * Looks an RPC up by method name, e.g. "GetUser", ignoring case
+         */
+        public static Rpc forMethod(String name) {
+            for (Rpc rpc : values()) {
+                if (rpc.methodName.equalsIgnoreCase(name) || rpc.name().equalsIgnoreCase(name)) {
+                    return rpc;
+                }
+            }
+            throw new IllegalArgumentException("Unknown UserService RPC: " + name);
+        }
+
+        /**
+         * Whether operations need the emails of existing users, which only --preload provides
+         */
+        boolean needsEmails() {
+            return this == GET_USER_BY_EMAIL || this == UPDATE_USER;
+        }
+
+        @Override
+        public String toString() {
+            return methodName;
+        }
+    }
+
+    /**
+     * Command-line settings, written as --name=value
+     */
+    public static final class Options {
+        String host = "localhost";
+        int port = 9090;
+        int connections = Runtime.getRuntime().availableProcessors();
+        Rpc rpc = Rpc.GET_USER;
+        // Operations per second; 0 selects closed-loop pacing
+        double rate;
+        int concurrency = 16;
+        long durationNanos = TimeUnit.SECONDS.toNanos(30);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(5);
+        long deadlineNanos = TimeUnit.SECONDS.toNanos(10);
+        // Closed loop only; 0 records latencies uncorrected
+        long expectedIntervalNanos;
+        int keySpace = 1000;
+        boolean zipfian;
+        double zipfExponent = 0.99;
+        int preload;
+        int batchSize = 100;
+        int streamMessages = 100;
+        int maxOutstanding = 10_000;
+
+        /**
+         * @throws IllegalArgumentException for an unknown option or a malformed value
+         */
+        public static Options parse(String... args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+                }
+                String value = arg.substring(equals + 1);
+                try {
+                    options.set(arg.substring(2, equals), value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Malformed value in " + arg, e);
+                }
+            }
+            if (options.rate < 0 || options.concurrency <= 0 || options.maxOutstanding <= 0
+                    || options.batchSize <= 0 || options.streamMessages <= 0 || options.preload < 0) {
+                throw new IllegalArgumentException("Rates and counts must be positive");
+            }
+            if (options.rpc.needsEmails() && options.preload == 0) {
+                throw new IllegalArgumentException(options.rpc + " needs --preload to know existing users' emails");
+            }
+            return options;
+        }
+
+        private void set(String name, String value) {
+            switch (name) {
+                case "host":
+                    host = value;
+                    break;
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "connections":
+                    connections = Integer.parseInt(value);
+                    break;
+                case "rpc":
+                    rpc = Rpc.forMethod(value);
+                    break;
+                case "rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "concurrency":
+                    concurrency = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    durationNanos = parseDuration(value);
+                    break;
+                case "warmup":
+                    warmupNanos = parseDuration(value);
+                    break;
+                case "deadline":
+                    deadlineNanos = parseDuration(value);
+                    break;
+                case "expected-interval":
+                    expectedIntervalNanos = parseDuration(value);
+                    break;
+                case "key-space":
+                    keySpace = Integer.parseInt(value);
+                    break;
+                case "keys":
+                    if (!value.equalsIgnoreCase("uniform") && !value.equalsIgnoreCase("zipf")) {
+                        throw new IllegalArgumentException("--keys must be uniform or zipf, got: " + value);
+                    }
+                    zipfian = value.equalsIgnoreCase("zipf");
+                    break;
+                case "zipf-exponent":
+                    zipfExponent = Double.parseDouble(value);
+                    break;
+                case "preload":
+                    preload = Integer.parseInt(value);
+                    break;
+                case "batch-size":
+                    batchSize = Integer.parseInt(value);
+                    break;
+                case "stream-messages":
+                    streamMessages = Integer.parseInt(value);
+                    break;
+                case "max-outstanding":
+                    maxOutstanding = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+
+        /**
+         * Parses "250ms", "30s", "2m" or a bare number of seconds
+         */
+        static long parseDuration(String value) {
+            String text = value.trim().toLowerCase(Locale.ROOT);
+            if (text.endsWith("ms")) {
+                return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(text.substring(0, text.length() - 2)));
+            }
+            if (text.endsWith("s")) {
+                return TimeUnit.SECONDS.toNanos(Long.parseLong(text.substring(0, text.length() - 1)));
+            }
+            if (text.endsWith("m")) {
+                return TimeUnit.MINUTES.toNanos(Long.parseLong(text.substring(0, text.length() - 1)));
+            }
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(text));
+        }
+
+        boolean openLoop() {
+            return rate > 0;
+        }
+    }
+
+    /**
+     * Outcome of the measured part of a run
+     */
+    public static final class Result {
+        /** Nanoseconds from scheduled start to completion, for successful operations */
+        public final Histogram responseTime;
+        /** Nanoseconds from issuing the call to completion, for successful operations */
+        public final Histogram serviceTime;
+        public final Map<Status.Code, Long> errors;
+        public final long elapsedNanos;
+
+        Result(Histogram responseTime, Histogram serviceTime, Map<Status.Code, Long> errors, long elapsedNanos) {
+            this.responseTime = responseTime;
+            this.serviceTime = serviceTime;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long completed() {
+            return responseTime.getTotalCount() + errors.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public double throughput() {
+            return completed() * 1e9 / elapsedNanos;
+        }
+    }
+
+    private interface Completion {
+        void finish(Status status);
+    }
+
+    private final Options options;
+    private final UserServiceGrpc.UserServiceStub stub;
+    private final String runId = Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xFFFFFFFFL);
+    private final AtomicLong createdUsers = new AtomicLong();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Recorder responseTimes = new Recorder(3);
+    private final Recorder serviceTimes = new Recorder(3);
+    private final Map<Status.Code, LongAdder> errors = new EnumMap<>(Status.Code.class);
+    // IDs of the users the keys stand for: the imported users with --preload, otherwise 1..key-space
+    private int[] ids;
+    private KeyDistribution keys;
+    private volatile long measureStart;
+    private volatile boolean stopped;
+
+    public LoadGenerator(Options options, Channel channel) {
+        this.options = options;
+        this.stub = UserServiceGrpc.newStub(channel);
+        for (Status.Code code : Status.Code.values()) {
+            errors.put(code, new LongAdder());
+        }
+    }
+
+    /**
+     * Preloads users if asked, then warms up and measures for the configured durations
+     *
+     * @param progress receives one line per second of the measured run; may be null
+     */
+    public Result run(Consumer<String> progress) throws InterruptedException {
+        ids = options.preload > 0 ? preload(options.preload) : sequentialIds(options.keySpace);
+        keys = options.zipfian ? KeyDistribution.zipfian(ids.length, options.zipfExponent)
+                : KeyDistribution.uniform(ids.length);
+
+        long start = System.nanoTime();
+        measureStart = start + options.warmupNanos;
+        long end = measureStart + options.durationNanos;
+        Thread pacer = null;
+        if (options.openLoop()) {
+            pacer = new Thread(() -> paceOpenLoop(start, end), "load-pacer");
+            pacer.setDaemon(true);
+            pacer.start();
+        } else {
+            for (int i = 0; i < options.concurrency; i++) {
+                issue(System.nanoTime());
+            }
+        }
+
+        sleepUntil(measureStart);
+        // Everything recorded so far was scheduled during warmup and is ignored
+        Histogram responseTotal = new Histogram(3);
+        Histogram serviceTotal = new Histogram(3);
+        responseTimes.getIntervalHistogram();
+        serviceTimes.getIntervalHistogram();
+
+        long second = 0;
+        Histogram interval = null;
+        for (long next = measureStart + TimeUnit.SECONDS.toNanos(1); next < end; next += TimeUnit.SECONDS.toNanos(1)) {
+            sleepUntil(next);
+            interval = responseTimes.getIntervalHistogram(interval);
+            responseTotal.add(interval);
+            serviceTotal.add(serviceTimes.getIntervalHistogram());
+            if (progress != null) {
+                progress.accept(String.format(Locale.ROOT, "[%4ds] %,10d ops/s  p50 %,9.0f  p99 %,9.0f  max %,9.0f us",
+                        ++second, interval.getTotalCount(), micros(interval.getValueAtPercentile(50)),
+                        micros(interval.getValueAtPercentile(99)), micros(interval.getMaxValue())));
+            }
+        }
+        sleepUntil(end);
+        stopped = true;
+        if (pacer != null) {
+            pacer.join();
+        }
+        // Operations scheduled before the end still count when they finish
+        long drainDeadline = System.nanoTime() + options.deadlineNanos + TimeUnit.SECONDS.toNanos(1);
+        while (outstanding.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        responseTotal.add(responseTimes.getIntervalHistogram());
+        serviceTotal.add(serviceTimes.getIntervalHistogram());
+
+        Map<Status.Code, Long> errorCounts = new EnumMap<>(Status.Code.class);
+        errors.forEach((code, count) -> {
+            if (count.sum() > 0) {
+                errorCounts.put(code, count.sum());
+            }
+        });
+        return new Result(responseTotal, serviceTotal, errorCounts, end - measureStart);
+    }
+
+    /**
+     * Issues operations at their scheduled times, catching up without delay
+     * when behind; only --max-outstanding calls in flight hold it back, and
+     * the wait still counts against the operations' response time
+     */
+    private void paceOpenLoop(long start, long end) {
+        double intervalNanos = 1e9 / options.rate;
+        for (long i = 0; ; i++) {
+            long scheduled = start + (long) (i * intervalNanos);
+            if (scheduled >= end) {
+                return;
+            }
+            long now;
+            while ((now = System.nanoTime()) < scheduled) {
+                LockSupport.parkNanos(scheduled - now);
+            }
+            while (outstanding.get() >= options.maxOutstanding) {
+                LockSupport.parkNanos(50_000);
+            }
+            issue(scheduled);
+        }
+    }
+
+    private void issue(long scheduled) {
+        long issued = System.nanoTime();
+        outstanding.incrementAndGet();
+        try {
+            start(status -> complete(scheduled, issued, status));
+        } catch (RuntimeException e) {
+            complete(scheduled, issued, Status.fromThrowable(e));
+        }
+    }
+
+    private void complete(long scheduled, long issued, Status status) {
+        long now = System.nanoTime();
+        if (scheduled >= measureStart) {
+            if (!status.isOk()) {
+                errors.get(status.getCode()).increment();
+            } else if (options.expectedIntervalNanos > 0) {
+                responseTimes.recordValueWithExpectedInterval(now - scheduled, options.expectedIntervalNanos);
+                serviceTimes.recordValue(now - issued);
+            } else {
+                responseTimes.recordValue(now - scheduled);
+                serviceTimes.recordValue(now - issued);
+            }
+        }
+        outstanding.decrementAndGet();
+        if (!options.openLoop() && !stopped) {
+            issue(now);
+        }
+    }
+
+    private UserServiceGrpc.UserServiceStub stub() {
+        return stub.withDeadlineAfter(options.deadlineNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Starts one operation; done is called exactly once
+     */
+    private void start(Completion done) {
+        switch (options.rpc) {
+            case CREATE_USER:
+                stub().createUser(newUser(), observer(done));
+                break;
+            case GET_USER:
+                stub().getUser(GetUserRequest.newBuilder().setId(ids[keys.next()]).build(), observer(done));
+                break;
+            case GET_USER_BY_EMAIL:
+                stub().getUserByEmail(GetUserByEmailRequest.newBuilder().setEmail(email(keys.next())).build(),
+                        observer(done));
+                break;
+            case BATCH_GET_USERS:
+                BatchGetUsersRequest.Builder batch = BatchGetUsersRequest.newBuilder();
+                for (int i = 0; i < options.batchSize; i++) {
+                    batch.addIds(ids[keys.next()]);
+                }
+                stub().batchGetUsers(batch.build(), observer(done));
+                break;
+            case UPDATE_USER:
+                int key = keys.next();
+                stub().updateUser(UpdateUserRequest.newBuilder()
+                        .setId(ids[key])
+                        .setName("Load User " + key)
+                        .setEmail(email(key))
+                        .setAge(20 + key % 50)
+                        .setDepartment("Load")
+                        .setStatus(UserStatus.ACTIVE)
+                        .build(), observer(done));
+                break;
+            case DELETE_USER:
+                stub().deleteUser(DeleteUserRequest.newBuilder().setId(ids[keys.next()]).build(), observer(done));
+                break;
+            case LIST_USERS_PAGE:
+                stub().listUsersPage(ListUsersRequest.newBuilder().setPageSize(options.batchSize).build(),
+                        observer(done));
+                break;
+            case LIST_USERS:
+                stub().listUsers(ListUsersRequest.newBuilder().setPage(1).setPageSize(options.batchSize).build(),
+                        observer(done));
+                break;
+            case CREATE_MULTIPLE_USERS:
+                sendNewUsers(stub().createMultipleUsers(observer(done)));
+                break;
+            case IMPORT_USERS:
+                sendNewUsers(stub().importUsers(observer(done)));
+                break;
+            case CHAT_WITH_USERS:
+                sendLookups(stub().chatWithUsers(observer(done)));
+                break;
+            case CHAT_WITH_USERS_BATCHED:
+                sendLookups(stub().chatWithUsersBatched(observer(done)));
+                break;
+            default:
+                throw new AssertionError(options.rpc);
+        }
+    }
+
+    private void sendNewUsers(StreamObserver<CreateUserRequest> requests) {
+        for (int i = 0; i < options.streamMessages; i++) {
+            requests.onNext(newUser());
+        }
+        requests.onCompleted();
+    }
+
+    private void sendLookups(StreamObserver<GetUserRequest> requests) {
+        for (int i = 0; i < options.streamMessages; i++) {
+            requests.onNext(GetUserRequest.newBuilder().setId(ids[keys.next()]).build());
+        }
+        requests.onCompleted();
+    }
+
+    private CreateUserRequest newUser() {
+        long n = createdUsers.incrementAndGet();
+        return CreateUserRequest.newBuilder()
+                .setName("Load User " + n)
+                .setEmail("load-" + runId + "-new-" + n + "@loadgen.example")
+                .setAge(20 + (int) (n % 50))
+                .setDepartment("Load")
+                .build();
+    }
+
+    private String email(int key) {
+        return "load-" + runId + "-" + key + "@loadgen.example";
+    }
+
+    private static <T> StreamObserver<T> observer(Completion done) {
+        return new StreamObserver<>() {
+            @Override
+            public void onNext(T value) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.finish(Status.fromThrowable(t));
+            }
+
+            @Override
+            public void onCompleted() {
+                done.finish(Status.OK);
+            }
+        };
+    }
+
+    /**
+     * Imports count users with ImportUsers and returns their IDs, key k
+     * being the user with email(k)
+     */
+    private int[] preload(int count) throws InterruptedException {
+        int[] imported = new int[count];
+        CountDownLatch finished = new CountDownLatch(1);
+        Status[] outcome = new Status[1];
+        AtomicInteger acknowledged = new AtomicInteger();
+        StreamObserver<CreateUserRequest> requests = stub.importUsers(new StreamObserver<>() {
+            private int next;
+
+            @Override
+            public void onNext(ImportUsersProgress progress) {
+                // Acks arrive in request order and each chunk's IDs are contiguous
+                for (int id = progress.getFirstId(); id <= progress.getLastId(); id++) {
+                    imported[next++] = id;
+                }
+                acknowledged.set(next);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                outcome[0] = Status.fromThrowable(t);
+                finished.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                outcome[0] = Status.OK;
+                finished.countDown();
+            }
+        });
+        for (int key = 0; key < count; key++) {
+            requests.onNext(CreateUserRequest.newBuilder()
+                    .setName("Load User " + key)
+                    .setEmail(email(key))
+                    .setAge(20 + key % 50)
+                    .setDepartment("Load")
+                    .build());
+        }
+        requests.onCompleted();
+        // A large import may take longer than one deadline, but not a whole deadline without an ack
+        int seen = -1;
+        while (!finished.await(options.deadlineNanos, TimeUnit.NANOSECONDS)) {
+            int acked = acknowledged.get();
+            if (acked == seen) {
+                ((ClientCallStreamObserver<CreateUserRequest>) requests).cancel("Preload stalled", null);
+                throw Status.DEADLINE_EXCEEDED.withDescription("Preloading stalled with " + (count - acked)
+                        + " of " + count + " users unacknowledged").asRuntimeException();
+            }
+            seen = acked;
+        }
+        if (!outcome[0].isOk()) {
+            throw outcome[0].augmentDescription("Preloading " + count + " users failed").asRuntimeException();
+        }
+        return imported;
+    }
+
+    private static int[] sequentialIds(int count) {
+        int[] sequential = new int[count];
+        for (int key = 0; key < count; key++) {
+            sequential[key] = key + 1;
+        }
+        return sequential;
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1_000.0;
+    }
+
+    /**
+     * Prints the run's settings and percentiles
+     */
+    public static void report(Options options, Result result) {
+        System.out.printf(Locale.ROOT, "%n%s, %s, %s keys over %,d users, %d connections%n", options.rpc,
+                options.openLoop() ? String.format(Locale.ROOT, "open loop at %,.0f ops/s", options.rate)
+                        : "closed loop with " + options.concurrency + " in flight",
+                options.zipfian ? "Zipfian(" + options.zipfExponent + ")" : "uniform",
+                options.preload > 0 ? options.preload : options.keySpace, options.connections);
+        System.out.printf(Locale.ROOT, "%,d operations in %.1f s: %,.1f ops/s, errors %s%n", result.completed(),
+                result.elapsedNanos / 1e9, result.throughput(), result.errors);
+        System.out.printf(Locale.ROOT, "%-14s %10s %10s %10s %10s%n", "latency (us)", "p50", "p99", "p99.9", "max");
+        printPercentiles("response time", result.responseTime);
+        printPercentiles("service time", result.serviceTime);
+    }
+
+    private static void printPercentiles(String label, Histogram histogram) {
+        System.out.printf(Locale.ROOT, "%-14s %,10.0f %,10.0f %,10.0f %,10.0f%n", label,
+                micros(histogram.getValueAtPercentile(50)), micros(histogram.getValueAtPercentile(99)),
+                micros(histogram.getValueAtPercentile(99.9)), micros(histogram.getMaxValue()));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options = Options.parse(args);
+        ChannelPool channel = new ChannelPool(options.connections, i ->
+                ManagedChannelBuilder.forAddress(options.host, options.port)
+                        .usePlaintext()
+                        .decompressorRegistry(CompressionCodecs.standard().decompressors())
+                        .build());
+        try {
+            Result result = new LoadGenerator(options, channel).run(System.out::println);
+            report(options, result);
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
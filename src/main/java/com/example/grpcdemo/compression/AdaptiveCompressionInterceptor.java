@@ -0,0 +1,114 @@
+package com.example.grpcdemo.compression;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compresses responses per method and per message by serialized size
+ *
+ * For each call the first encoding in the server's preference order that
+ * the client lists in grpc-accept-encoding is chosen. Each response
+ * message is then compressed only if it is at least the method's size
+ * threshold, so a large ListUsersPage or batch response is compressed
+ * while a small GetUser response, which would only cost CPU, goes out as
+ * it is on the same call. Sizes come from the message itself, memoized by
+ * protobuf for the serialization that follows, or from the length of a
+ * pre-encoded response.
+ */
+public final class AdaptiveCompressionInterceptor implements ServerInterceptor {
+
+    private static final Metadata.Key<String> ACCEPT_ENCODING =
+            Metadata.Key.of("grpc-accept-encoding", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final List<String> preferredEncodings;
+    private final int defaultMinBytes;
+    private final Map<String, Integer> methodMinBytes;
+
+    /**
+     * @param preferredEncodings encodings to use, most preferred first; each must be in the server's codec registry
+     * @param defaultMinBytes smallest response compressed for methods without their own threshold
+     * @param methodMinBytes thresholds by bare method name, e.g. "ListUsersPage"; a negative one never compresses
+     */
+    public AdaptiveCompressionInterceptor(List<String> preferredEncodings, int defaultMinBytes,
+                                          Map<String, Integer> methodMinBytes) {
+        this.preferredEncodings = List.copyOf(preferredEncodings);
+        this.defaultMinBytes = defaultMinBytes;
+        this.methodMinBytes = Map.copyOf(methodMinBytes);
+    }
+
+    /**
+     * Parses per-method thresholds written as "Method=bytes,Method=bytes"
+     *
+     * @throws IllegalArgumentException if an entry is not Method=integer
+     */
+    public static Map<String, Integer> parseMethodMinBytes(String spec) {
+        Map<String, Integer> thresholds = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int equals = entry.indexOf('=');
+            String bytes = equals > 0 ? entry.substring(equals + 1).trim() : "";
+            if (!bytes.matches("-?\\d{1,9}")) {
+                throw new IllegalArgumentException("Expected Method=bytes in method thresholds, got: " + entry);
+            }
+            thresholds.put(entry.substring(0, equals).trim(), Integer.parseInt(bytes));
+        }
+        return thresholds;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        int minBytes = methodMinBytes.getOrDefault(call.getMethodDescriptor().getBareMethodName(), defaultMinBytes);
+        String encoding = minBytes < 0 ? null : chooseEncoding(headers.get(ACCEPT_ENCODING));
+        if (encoding == null) {
+            return next.startCall(call, headers);
+        }
+        call.setCompression(encoding);
+        return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                delegate().setMessageCompression(serializedSize(message) >= minBytes);
+                super.sendMessage(message);
+            }
+        }, headers);
+    }
+
+    private String chooseEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        Set<String> accepted = new HashSet<>();
+        for (String encoding : acceptEncoding.split(",")) {
+            accepted.add(encoding.trim());
+        }
+        for (String encoding : preferredEncodings) {
+            if (accepted.contains(encoding)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    private static int serializedSize(Object message) {
+        if (message instanceof MessageLite lite) {
+            return lite.getSerializedSize();
+        }
+        if (message instanceof byte[] encoded) {
+            return encoded.length;
+        }
+        // Unknown message type; let the configured encoding apply
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.grpcdemo.compression;
+
+import io.grpc.Codec;
+import io.grpc.CompressorRegistry;
+import io.grpc.DecompressorRegistry;
+
+import java.util.Set;
+
+/**
+ * Registry of message encodings shared by the server and its clients
+ *
+ * Starts with gRPC's identity and gzip plus snappy; further codecs are
+ * added with register(). The server needs the compressor registry to send
+ * an encoding and both sides need the decompressor registry to read it:
+ * a client advertises only the encodings in its decompressor registry in
+ * grpc-accept-encoding, so one built without snappy is never sent snappy.
+ */
+public final class CompressionCodecs {
+
+    private final CompressorRegistry compressors = CompressorRegistry.newEmptyInstance();
+    private DecompressorRegistry decompressors = DecompressorRegistry.emptyInstance();
+
+    private CompressionCodecs() {
+    }
+
+    /**
+     * Identity, gzip and snappy
+     */
+    public static CompressionCodecs standard() {
+        return new CompressionCodecs()
+                .register(Codec.Identity.NONE)
+                .register(new Codec.Gzip())
+                .register(new SnappyCodec());
+    }
+
+    /**
+     * Adds or replaces the codec for its encoding, both for sending and reading
+     */
+    public synchronized CompressionCodecs register(Codec codec) {
+        compressors.register(codec);
+        // Advertised, so clients list it in grpc-accept-encoding
+        decompressors = decompressors.with(codec, true);
+        return this;
+    }
+
+    public CompressorRegistry compressors() {
+        return compressors;
+    }
+
+    public synchronized DecompressorRegistry decompressors() {
+        return decompressors;
+    }
+
+    /**
+     * Encodings this registry can both send and read
+     */
+    public synchronized Set<String> encodings() {
+        return decompressors.getKnownMessageEncodings();
+    }
+}
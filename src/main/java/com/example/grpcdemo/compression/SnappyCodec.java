@@ -0,0 +1,43 @@
+package com.example.grpcdemo.compression;
+
+import io.grpc.Codec;
+import org.iq80.snappy.SnappyFramedInputStream;
+import org.iq80.snappy.SnappyFramedOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * "snappy" message encoding in the Snappy framing format
+ *
+ * Snappy trades ratio for speed. CompressionBenchmark measured one
+ * compress plus decompress of each response, with JDK 17 on one CPU:
+ * 1. ListUsersPage of 100 users, 7522 bytes: snappy 2232 bytes in 49 us,
+ *    gzip 1176 bytes in 127 us
+ * 2. BatchGetUsers of 500 users, 40645 bytes: snappy 11362 bytes in 258 us,
+ *    gzip 6036 bytes in 1170 us
+ * Snappy sends 28-30% of the bytes where gzip sends 15-16%, for 22-38% of
+ * gzip's CPU, so it suits messages worth compressing but not worth gzip's
+ * cost. A single GetUser grows under either codec (76 bytes to 94 and 91).
+ */
+public final class SnappyCodec implements Codec {
+
+    public static final String ENCODING = "snappy";
+
+    @Override
+    public String getMessageEncoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream os) throws IOException {
+        return new SnappyFramedOutputStream(os);
+    }
+
+    @Override
+    public InputStream decompress(InputStream is) throws IOException {
+        // Checksums are verified; a corrupt message fails the call instead of decoding garbage
+        return new SnappyFramedInputStream(is, true);
+    }
+}
@@ -1,51 +1,146 @@
 package com.example.grpcdemo.config;
 
+import com.example.grpcdemo.compression.AdaptiveCompressionInterceptor;
+import com.example.grpcdemo.compression.CompressionCodecs;
+import com.example.grpcdemo.service.PreEncodedUserService;
 import com.example.grpcdemo.service.UserServiceImpl;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Configuration class for gRPC server
  * 
  * This class sets up the gRPC server with the UserService implementation
- * and configures it to run on a specified port.
+ * and configures it to run on a specified port, with call handlers on the
+ * executor chosen by grpc.server.executor.type. The Netty transport, its
+ * event loops, buffer allocator and listener count come from the
+ * grpc.server.netty.* properties, and response compression from the
+ * grpc.compression.* properties.
  */
 @Configuration
 public class GrpcServerConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(GrpcServerConfig.class);
+
     @Value("${grpc.server.port:9090}")
     private int grpcPort;
 
+    @Value("${grpc.cache.get-user.enabled:true}")
+    private boolean preEncodedReads;
+
+    @Value("${grpc.server.executor.type:DEFAULT}")
+    private ServerExecutor executorType;
+
+    // Pool size for FIXED and FORK_JOIN; 0 uses one thread per available processor
+    @Value("${grpc.server.executor.threads:0}")
+    private int executorThreads;
+
+    @Value("${grpc.server.netty.transport:AUTO}")
+    private NettyServerTransport.Kind transportKind;
+
+    // 0 gives each listener its own accept thread
+    @Value("${grpc.server.netty.boss-threads:0}")
+    private int bossThreads;
+
+    // 0 uses Netty's default of two per processor
+    @Value("${grpc.server.netty.worker-threads:0}")
+    private int workerThreads;
+
+    @Value("${grpc.server.netty.allocator:POOLED}")
+    private NettyServerTransport.Allocator allocator;
+
+    // Sockets bound to the port with SO_REUSEPORT; more than one needs the epoll transport
+    @Value("${grpc.server.netty.listeners:1}")
+    private int listeners;
+
+    @Value("${grpc.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    // Server preference order; each call uses the first one its client accepts
+    @Value("${grpc.compression.encodings:snappy,gzip}")
+    private String[] compressionEncodings;
+
+    @Value("${grpc.compression.min-bytes:1024}")
+    private int compressionMinBytes;
+
+    // Method=bytes overrides of min-bytes; a negative threshold never compresses the method
+    @Value("${grpc.compression.method-min-bytes:}")
+    private String compressionMethodMinBytes;
+
     private Server grpcServer;
+    private ExecutorService handlerExecutor;
+    private NettyServerTransport transport;
 
     @Bean
     public Server grpcServer(UserServiceImpl userService) throws IOException {
-        grpcServer = ServerBuilder.forPort(grpcPort)
-                .addService(userService)
-                .build()
-                .start();
+        transport = NettyServerTransport.create(transportKind, bossThreads, workerThreads, listeners, allocator);
+        ServerServiceDefinition service = preEncodedReads
+                ? PreEncodedUserService.bind(userService) : userService.bindService();
+        CompressionCodecs codecs = CompressionCodecs.standard();
+        if (compressionEnabled) {
+            service = ServerInterceptors.intercept(service, compressionInterceptor(codecs));
+        }
+        NettyServerBuilder builder = transport.builder(new InetSocketAddress(grpcPort), listeners)
+                .compressorRegistry(codecs.compressors())
+                .decompressorRegistry(codecs.decompressors())
+                .addService(service);
+        handlerExecutor = executorType.configure(builder, executorThreads);
+        grpcServer = builder.build().start();
 
-        System.out.println("gRPC server started on port: " + grpcPort);
+        log.info("gRPC server started on port: {} ({}, {} listener(s)) with {} handler executor",
+                grpcPort, transport.describe(), listeners, executorType);
         
         // Add shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("Shutting down gRPC server...");
+            log.info("Shutting down gRPC server...");
             grpcServer.shutdown();
         }));
 
         return grpcServer;
     }
 
+    private AdaptiveCompressionInterceptor compressionInterceptor(CompressionCodecs codecs) {
+        List<String> encodings = new ArrayList<>();
+        for (String encoding : compressionEncodings) {
+            if (!codecs.encodings().contains(encoding.trim())) {
+                throw new IllegalArgumentException("Unknown grpc.compression.encodings entry: " + encoding
+                        + " (known: " + codecs.encodings() + ")");
+            }
+            encodings.add(encoding.trim());
+        }
+        return new AdaptiveCompressionInterceptor(encodings, compressionMinBytes,
+                AdaptiveCompressionInterceptor.parseMethodMinBytes(compressionMethodMinBytes));
+    }
+
     @PreDestroy
-    public void stopGrpcServer() {
+    public void stopGrpcServer() throws InterruptedException {
         if (grpcServer != null && !grpcServer.isShutdown()) {
             grpcServer.shutdown();
         }
+        if (grpcServer != null) {
+            // In-flight calls still need the executor and event loops
+            grpcServer.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (handlerExecutor != null) {
+            handlerExecutor.shutdown();
+        }
+        if (transport != null) {
+            transport.close();
+        }
     }
 }
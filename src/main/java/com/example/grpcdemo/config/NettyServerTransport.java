@@ -0,0 +1,159 @@
+package com.example.grpcdemo.config;
+
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.buffer.ByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.buffer.PooledByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.buffer.UnpooledByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.channel.ChannelOption;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.ServerChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollChannelOption;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Netty event loops, channel type and buffer allocator for the gRPC server
+ *
+ * Boss loops accept connections and worker loops serve them. With epoll,
+ * several listeners can bind the same port with SO_REUSEPORT, so the kernel
+ * spreads incoming connections over them and accepts are not funnelled
+ * through one socket and one boss thread. The event loops belong to this
+ * object, not to the server, and are shut down by close().
+ */
+public final class NettyServerTransport implements Closeable {
+
+    public enum Kind {
+        /** EPOLL where the native transport loads (Linux), NIO elsewhere */
+        AUTO,
+        EPOLL,
+        NIO
+    }
+
+    public enum Allocator {
+        /** Pooled direct buffers: no heap copy on socket I/O and no per-message allocation */
+        POOLED,
+        /** Fresh direct buffers per allocation; for comparison only */
+        UNPOOLED,
+        /** Whatever gRPC picks for its transport */
+        DEFAULT
+    }
+
+    private final boolean epoll;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final Allocator allocator;
+    // Null leaves gRPC's own allocator in place
+    private final ByteBufAllocator buffers;
+
+    private NettyServerTransport(boolean epoll, EventLoopGroup bossGroup, EventLoopGroup workerGroup,
+                                 Allocator allocator) {
+        this.epoll = epoll;
+        this.bossGroup = bossGroup;
+        this.workerGroup = workerGroup;
+        this.allocator = allocator;
+        switch (allocator) {
+            case POOLED:
+                buffers = new PooledByteBufAllocator(true);
+                break;
+            case UNPOOLED:
+                buffers = new UnpooledByteBufAllocator(true);
+                break;
+            default:
+                buffers = null;
+        }
+    }
+
+    /**
+     * Creates the event loops
+     *
+     * @param bossThreads accept threads; 0 means one per listener
+     * @param workerThreads I/O threads; 0 means Netty's default of two per processor
+     * @param listeners sockets bound to the port; more than one needs epoll
+     * @throws IllegalStateException if EPOLL is asked for, or needed for several listeners, and is unavailable
+     */
+    public static NettyServerTransport create(Kind kind, int bossThreads, int workerThreads, int listeners,
+                                              Allocator allocator) {
+        if (listeners <= 0) {
+            throw new IllegalArgumentException("grpc.server.netty.listeners must be positive: " + listeners);
+        }
+        boolean epoll = kind == Kind.EPOLL || (kind == Kind.AUTO && Epoll.isAvailable());
+        if (epoll && !Epoll.isAvailable()) {
+            throw new IllegalStateException("Native epoll transport is unavailable", Epoll.unavailabilityCause());
+        }
+        if (listeners > 1 && !epoll) {
+            throw new IllegalStateException("grpc.server.netty.listeners > 1 needs SO_REUSEPORT, which only the "
+                    + "EPOLL transport supports");
+        }
+        int bosses = bossThreads > 0 ? bossThreads : listeners;
+        DefaultThreadFactory bossThreadsFactory = new DefaultThreadFactory("grpc-boss", true);
+        DefaultThreadFactory workerThreadsFactory = new DefaultThreadFactory("grpc-worker", true);
+        if (epoll) {
+            return new NettyServerTransport(true, new EpollEventLoopGroup(bosses, bossThreadsFactory),
+                    new EpollEventLoopGroup(workerThreads, workerThreadsFactory), allocator);
+        }
+        return new NettyServerTransport(false, new NioEventLoopGroup(bosses, bossThreadsFactory),
+                new NioEventLoopGroup(workerThreads, workerThreadsFactory), allocator);
+    }
+
+    /**
+     * Server builder bound to the address once per listener on these event loops
+     */
+    public NettyServerBuilder builder(InetSocketAddress address, int listeners) {
+        if (listeners > 1 && address.getPort() == 0) {
+            // Each bind would pick its own ephemeral port
+            throw new IllegalArgumentException("Several listeners need a fixed port");
+        }
+        NettyServerBuilder builder = NettyServerBuilder.forAddress(address)
+                .bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .channelType(serverChannelType());
+        for (int i = 1; i < listeners; i++) {
+            builder.addListenAddress(address);
+        }
+        if (listeners > 1) {
+            builder.withOption(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        if (buffers != null) {
+            builder.withOption(ChannelOption.ALLOCATOR, buffers)
+                    .withChildOption(ChannelOption.ALLOCATOR, buffers);
+        }
+        return builder;
+    }
+
+    private Class<? extends ServerChannel> serverChannelType() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * Short description for the startup log, e.g. "EPOLL, 1 boss, 8 worker threads, POOLED buffers"
+     */
+    public String describe() {
+        return (epoll ? "EPOLL" : "NIO") + ", " + threads(bossGroup) + " boss, " + threads(workerGroup)
+                + " worker threads, " + allocator + " buffers";
+    }
+
+    private static int threads(EventLoopGroup group) {
+        int count = 0;
+        for (Object ignored : group) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Shuts the event loops down; call after the server has terminated
+     */
+    @Override
+    public void close() {
+        bossGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        workerGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.grpcdemo.config;
+
+import io.grpc.ServerBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that runs the gRPC server's call handlers
+ */
+public enum ServerExecutor {
+
+    /** gRPC's shared cached pool; a blocked handler makes it start another platform thread */
+    DEFAULT,
+
+    /**
+     * A new virtual thread per task; blocked handlers park instead of holding a platform thread (Java 21+)
+     *
+     * Every call runs on a fresh thread, so nothing per thread outlives a
+     * call. IdAllocator hands out ID blocks per stripe rather than per thread
+     * for this reason: per-thread blocks would reserve a whole block, and with
+     * the write-ahead log enabled wait for a durable log write, on every
+     * CreateUser.
+     */
+    VIRTUAL,
+
+    /** A fixed pool of platform threads; bounds threads, but blocked handlers queue work behind them */
+    FIXED,
+
+    /** A work-stealing pool in FIFO mode; cheap hand-offs for handlers that never block */
+    FORK_JOIN,
+
+    /** The transport's event-loop thread; fastest when no handler blocks, stalls the connection when one does */
+    DIRECT;
+
+    /**
+     * Points the builder at this executor
+     *
+     * @param threads pool size for FIXED and FORK_JOIN; 0 means one per available processor
+     * @return the executor created for the server, which the caller shuts down after it,
+     * or null if the builder needs none
+     * @throws IllegalStateException for VIRTUAL on a JVM without virtual threads
+     */
+    public ExecutorService configure(ServerBuilder<?> builder, int threads) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor;
+        switch (this) {
+            case DEFAULT:
+                return null;
+            case DIRECT:
+                builder.directExecutor();
+                return null;
+            case VIRTUAL:
+                executor = newVirtualThreadPerTaskExecutor();
+                break;
+            case FIXED:
+                AtomicInteger count = new AtomicInteger();
+                executor = Executors.newFixedThreadPool(poolSize, runnable -> {
+                    Thread thread = new Thread(runnable, "grpc-handler-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                break;
+            case FORK_JOIN:
+                executor = new ForkJoinPool(poolSize, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+                break;
+            default:
+                throw new AssertionError(this);
+        }
+        builder.executor(executor);
+        return executor;
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        // Looked up reflectively so the project still builds and runs on Java 17
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("grpc.server.executor.type=VIRTUAL needs Java 21 or later, running "
+                    + Runtime.version());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+}
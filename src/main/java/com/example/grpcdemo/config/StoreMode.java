@@ -0,0 +1,13 @@
+package com.example.grpcdemo.config;
+
+/**
+ * Where the in-memory user store keeps its users
+ */
+public enum StoreMode {
+
+    /** User objects in a primitive-keyed map; fastest reads, every user is live heap */
+    HEAP,
+
+    /** Encoded users in direct-memory slabs and the service's indexes in direct memory; every read decodes a fresh User */
+    OFFHEAP
+}
@@ -0,0 +1,147 @@
+package com.example.grpcdemo.config;
+
+import com.example.grpcdemo.persistence.DurableUserStore;
+import com.example.grpcdemo.persistence.Durability;
+import com.example.grpcdemo.service.GetUserResponseCache;
+import com.example.grpcdemo.store.DepartmentIndex;
+import com.example.grpcdemo.store.EmailIndex;
+import com.example.grpcdemo.store.HeapDepartmentIndex;
+import com.example.grpcdemo.store.HeapEmailIndex;
+import com.example.grpcdemo.store.HeapUserStore;
+import com.example.grpcdemo.store.IdAllocator;
+import com.example.grpcdemo.store.OffHeapDepartmentIndex;
+import com.example.grpcdemo.store.OffHeapEmailIndex;
+import com.example.grpcdemo.store.OffHeapUserStore;
+import com.example.grpcdemo.store.UserStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Configuration class for user storage
+ *
+ * Creates the UserStore used by UserServiceImpl, pre-sized from
+ * application.properties so large datasets do not rehash while loading,
+ * the email and department indexes over it, the ID allocator for new
+ * users, and the cache of encoded GetUser responses kept alongside it.
+ * With the write-ahead log enabled the store is rebuilt on startup from
+ * its newest snapshot plus the log written since.
+ *
+ * In OFFHEAP mode the indexes live in direct memory too, and the response
+ * cache, which holds encoded users on the heap, is left empty unless its
+ * size is set, so the heap does not grow with the number of users.
+ */
+@Configuration
+public class UserStoreConfig {
+
+    private static final int DEFAULT_RESPONSE_CACHE_ENTRIES = 1_000_000;
+    // Slab offsets are ints, so a slab is at most 1 GB
+    private static final int MAX_SLAB_SIZE_MB = 1 << 10;
+
+    @Value("${grpc.store.expected-size:1024}")
+    private int expectedSize;
+
+    // Negative picks by store mode: DEFAULT_RESPONSE_CACHE_ENTRIES for HEAP, none for OFFHEAP
+    @Value("${grpc.cache.get-user.max-entries:-1}")
+    private int responseCacheMaxEntries;
+
+    @Value("${grpc.store.mode:HEAP}")
+    private StoreMode mode;
+
+    @Value("${grpc.store.offheap.slab-size-mb:64}")
+    private int slabSizeMb;
+
+    // IDs each thread takes from the shared counter at a time
+    @Value("${grpc.ids.block-size:64}")
+    private int idBlockSize;
+
+    @Value("${grpc.store.wal.enabled:false}")
+    private boolean walEnabled;
+
+    @Value("${grpc.store.wal.dir:data/wal}")
+    private String walDir;
+
+    @Value("${grpc.store.wal.durability:GROUP_COMMIT}")
+    private Durability walDurability;
+
+    @Value("${grpc.store.wal.group-commit-ms:5}")
+    private long walGroupCommitMillis;
+
+    // 0 disables periodic snapshots; the log then grows until restart
+    @Value("${grpc.store.snapshot.interval-seconds:300}")
+    private long snapshotIntervalSeconds;
+
+    @Bean
+    public UserStore userStore() throws IOException {
+        UserStore store = memoryStore();
+        if (!walEnabled) {
+            return store;
+        }
+        DurableUserStore durable = DurableUserStore.open(store, Path.of(walDir), walDurability, walGroupCommitMillis);
+        if (snapshotIntervalSeconds > 0) {
+            durable.startCheckpoints(snapshotIntervalSeconds);
+        }
+        return durable;
+    }
+
+    private UserStore memoryStore() {
+        switch (mode) {
+            case HEAP:
+                return new HeapUserStore(expectedSize);
+            case OFFHEAP:
+                long slabSize = (long) slabSizeMb << 20;
+                if (slabSizeMb < 1 || slabSize > (long) MAX_SLAB_SIZE_MB << 20) {
+                    throw new IllegalArgumentException("grpc.store.offheap.slab-size-mb must be between 1 and "
+                            + MAX_SLAB_SIZE_MB + ": " + slabSizeMb);
+                }
+                return new OffHeapUserStore(expectedSize, (int) slabSize);
+            default:
+                throw new AssertionError(mode);
+        }
+    }
+
+    @Bean
+    public EmailIndex emailIndex(UserStore userStore) {
+        switch (mode) {
+            case HEAP:
+                return new HeapEmailIndex(userStore);
+            case OFFHEAP:
+                return new OffHeapEmailIndex(userStore, expectedSize);
+            default:
+                throw new AssertionError(mode);
+        }
+    }
+
+    @Bean
+    public DepartmentIndex departmentIndex() {
+        switch (mode) {
+            case HEAP:
+                return new HeapDepartmentIndex();
+            case OFFHEAP:
+                return new OffHeapDepartmentIndex();
+            default:
+                throw new AssertionError(mode);
+        }
+    }
+
+    @Bean
+    public IdAllocator idAllocator(UserStore userStore) {
+        if (userStore instanceof DurableUserStore durable) {
+            // Resume past every ID reserved before the restart, even for deleted users
+            return new IdAllocator(Math.max(durable.reservedIdLimit(), 1), idBlockSize, durable);
+        }
+        return new IdAllocator(1, idBlockSize, IdAllocator.ReservationLog.NONE);
+    }
+
+    @Bean
+    public GetUserResponseCache getUserResponseCache() {
+        int maxEntries = responseCacheMaxEntries;
+        if (maxEntries < 0) {
+            maxEntries = mode == StoreMode.HEAP ? DEFAULT_RESPONSE_CACHE_ENTRIES : 0;
+        }
+        return new GetUserResponseCache(maxEntries);
+    }
+}
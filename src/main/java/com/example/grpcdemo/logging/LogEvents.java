@@ -0,0 +1,25 @@
+package com.example.grpcdemo.logging;
+
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+/**
+ * Markers that classify log events on the RPC hot paths
+ *
+ * Each marker can be sampled and rate limited on its own through a
+ * RateLimitingTurboFilter in logback-spring.xml.
+ */
+public final class LogEvents {
+
+    /** Per-request reads: GetUser, ChatWithUsers lookups */
+    public static final Marker USER_READ = MarkerFactory.getMarker("USER_READ");
+
+    /** Per-request writes: CreateUser, UpdateUser, DeleteUser, batch chunks */
+    public static final Marker USER_WRITE = MarkerFactory.getMarker("USER_WRITE");
+
+    /** Completion of streaming calls */
+    public static final Marker STREAM = MarkerFactory.getMarker("STREAM");
+
+    private LogEvents() {
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.grpcdemo.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logback turbo filter that samples and rate limits one marked event type
+ *
+ * The decision is made in the isXxxEnabled(marker) probe, which passes no
+ * arguments, so a call site guarded by the probe skips boxing its arguments
+ * and Logback's argument array once the event is dropped; a denied guard
+ * costs a few atomic operations and no allocation. The event logged after a
+ * passing probe on the same thread is let through without being counted
+ * again. Unguarded calls are decided when they log, after Logback has
+ * already allocated their arguments. Configure one filter per marker in
+ * logback-spring.xml:
+ * 1. marker: name of the marker to act on, see LogEvents
+ * 2. sampleRate: keep one event in every N (1 keeps all)
+ * 3. maxPerSecond: drop events beyond this count per second (0 disables)
+ */
+public class RateLimitingTurboFilter extends TurboFilter {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private String markerName;
+    private Marker marker;
+    private int sampleRate = 1;
+    private int maxPerSecond;
+
+    private final AtomicLong seen = new AtomicLong();
+    private final AtomicLong currentSecond = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicInteger inCurrentSecond = new AtomicInteger();
+    // Set by a passing probe so the event it guards is not counted twice
+    private final ThreadLocal<Boolean> granted = new ThreadLocal<>();
+
+    public void setMarker(String markerName) {
+        this.markerName = markerName;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void setMaxPerSecond(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    @Override
+    public void start() {
+        if (markerName == null || markerName.isEmpty()) {
+            addError("No marker set for " + getName());
+            return;
+        }
+        if (sampleRate < 1 || maxPerSecond < 0) {
+            addError("sampleRate must be at least 1 and maxPerSecond non-negative");
+            return;
+        }
+        marker = MarkerFactory.getMarker(markerName);
+        super.start();
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (marker != this.marker || !isStarted()) {
+            return FilterReply.NEUTRAL;
+        }
+        if (level.levelInt < logger.getEffectiveLevel().levelInt) {
+            return FilterReply.NEUTRAL;
+        }
+        // A null format is an isXxxEnabled() probe
+        boolean probe = format == null;
+        if (!probe && granted.get() != null) {
+            granted.remove();
+            return FilterReply.NEUTRAL;
+        }
+        FilterReply reply = admit();
+        if (probe && reply == FilterReply.NEUTRAL) {
+            granted.set(Boolean.TRUE);
+        }
+        return reply;
+    }
+
+    private FilterReply admit() {
+        if (sampleRate > 1 && seen.getAndIncrement() % sampleRate != 0) {
+            return FilterReply.DENY;
+        }
+        if (maxPerSecond > 0) {
+            long second = System.nanoTime() / NANOS_PER_SECOND;
+            long window = currentSecond.get();
+            if (second != window && currentSecond.compareAndSet(window, second)) {
+                inCurrentSecond.set(0);
+            }
+            if (inCurrentSecond.incrementAndGet() > maxPerSecond) {
+                return FilterReply.DENY;
+            }
+        }
+        return FilterReply.NEUTRAL;
+    }
+}
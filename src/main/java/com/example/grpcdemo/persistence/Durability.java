@@ -0,0 +1,16 @@
+package com.example.grpcdemo.persistence;
+
+/**
+ * How long a write-ahead log append waits before the write is acknowledged
+ */
+public enum Durability {
+
+    /** fsync every record before acknowledging it; survives power loss, slowest */
+    SYNC,
+
+    /** fsync on a timer and acknowledge every record covered by that fsync */
+    GROUP_COMMIT,
+
+    /** Hand records to the OS page cache only; survives a process crash, not power loss */
+    OS_BUFFERED
+}
@@ -0,0 +1,326 @@
+package com.example.grpcdemo.persistence;
+
+import com.example.grpc.User;
+import com.example.grpcdemo.store.IdAllocator;
+import com.example.grpcdemo.store.UserStore;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * UserStore decorator that logs every mutation to a WriteAheadLog
+ *
+ * Each write is appended to the log before it is applied to the wrapped
+ * store, under a lock striped by user ID, so the log order of any one
+ * user matches the order its writes became visible. Waiting for the
+ * record to become durable happens after the lock is released, letting
+ * group commit cover writes from many threads with one fsync.
+ *
+ * checkpoint() rotates the log, snapshots the store while writes carry on
+ * and deletes the segments the snapshot replaces. The snapshot may already
+ * contain some writes logged after the rotation; replaying the newer
+ * segments over it is still exact because every record carries the whole
+ * user, so applying it again lands on the same state.
+ *
+ * It is also the ReservationLog for the IdAllocator: reservations are
+ * logged like writes and their limit is carried into each snapshot, so
+ * restarts never reissue an ID.
+ *
+ * Reads go straight to the wrapped store.
+ */
+public final class DurableUserStore implements UserStore, IdAllocator.ReservationLog, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DurableUserStore.class);
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final UserStore delegate;
+    private final Path directory;
+    private final WriteAheadLog wal;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    // Writers share it across append and apply; rotation takes it exclusively
+    private final StampedLock rotationLock = new StampedLock();
+    private final AtomicInteger reservedIdLimit;
+    private ScheduledExecutorService checkpointer;
+
+    // Guarded by this
+    private long checkpointedSequence;
+
+    private DurableUserStore(UserStore delegate, Path directory, WriteAheadLog wal, boolean replayed,
+                             int reservedIdLimit) {
+        this.delegate = delegate;
+        this.directory = directory;
+        this.wal = wal;
+        this.reservedIdLimit = new AtomicInteger(reservedIdLimit);
+        // Force the first checkpoint when startup had a log tail to replay
+        this.checkpointedSequence = replayed ? -1 : wal.lastSequence();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Loads the newest snapshot in the directory into the empty store,
+     * replays the log segments after it and wraps the store
+     */
+    public static DurableUserStore open(UserStore delegate, Path directory, Durability durability,
+                                        long groupCommitMillis) throws IOException {
+        long started = System.nanoTime();
+        long snapshot = Snapshots.latest(directory);
+        long restored = 0;
+        int[] reserved = new int[1];
+        if (snapshot > 0) {
+            Path file = Snapshots.path(directory, snapshot);
+            restored = Snapshots.load(file, delegate);
+            reserved[0] = Snapshots.reservedIdLimit(file);
+        }
+        long[] replayed = new long[1];
+        WriteAheadLog wal = WriteAheadLog.open(directory, snapshot, durability, groupCommitMillis, new WriteAheadLog.RecordHandler() {
+            @Override
+            public void onPut(int id, byte[] payload) {
+                delegate.put(parse(payload));
+                replayed[0]++;
+            }
+
+            @Override
+            public void onDelete(int id) {
+                delegate.remove(id);
+                replayed[0]++;
+            }
+
+            @Override
+            public void onReserve(int limit) {
+                reserved[0] = Math.max(reserved[0], limit);
+                replayed[0]++;
+            }
+        });
+        if (log.isInfoEnabled()) {
+            log.info("Restored {} users from snapshot and {} log records in {} ms",
+                    restored, replayed[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+        return new DurableUserStore(delegate, directory, wal, replayed[0] > 0, reserved[0]);
+    }
+
+    /**
+     * Takes a checkpoint every interval on a background thread
+     */
+    public synchronized void startCheckpoints(long intervalSeconds) {
+        if (checkpointer != null) {
+            throw new IllegalStateException("Checkpoints already scheduled");
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-store-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException | RuntimeException e) {
+                log.error("Checkpoint failed; the log keeps growing until one succeeds", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Snapshots the store and truncates the log behind the snapshot;
+     * returns false without doing anything if nothing was written since the last one
+     */
+    public synchronized boolean checkpoint() throws IOException {
+        if (wal.lastSequence() == checkpointedSequence) {
+            return false;
+        }
+        long started = System.nanoTime();
+        long segment;
+        int reservedLimit;
+        long stamp = rotationLock.writeLock();
+        try {
+            // No write is between its append and its apply here, so every record
+            // left in the old segments is already visible to the snapshot
+            segment = wal.rotate();
+            checkpointedSequence = wal.lastSequence();
+            reservedLimit = reservedIdLimit.get();
+        } finally {
+            rotationLock.unlockWrite(stamp);
+        }
+        long count = Snapshots.write(directory, segment, reservedLimit, delegate);
+        Snapshots.deleteBefore(directory, segment);
+        wal.deleteSegmentsBefore(segment);
+        if (log.isInfoEnabled()) {
+            log.info("Checkpointed {} users into snapshot {} in {} ms",
+                    count, segment, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+        return true;
+    }
+
+    /**
+     * Highest ID reservation limit logged so far; no ID at or above it was ever handed out
+     */
+    public int reservedIdLimit() {
+        return reservedIdLimit.get();
+    }
+
+    @Override
+    public void reserved(int limit) {
+        long sequence;
+        long stamp = rotationLock.readLock();
+        try {
+            sequence = wal.appendReserve(limit);
+            reservedIdLimit.accumulateAndGet(limit, Math::max);
+        } finally {
+            rotationLock.unlockRead(stamp);
+        }
+        wal.awaitDurable(sequence);
+    }
+
+    @Override
+    public User get(int id) {
+        return delegate.get(id);
+    }
+
+    @Override
+    public User[] getAll(int[] ids) {
+        return delegate.getAll(ids);
+    }
+
+    @Override
+    public User put(User user) {
+        long sequence;
+        User previous;
+        long stamp = rotationLock.readLock();
+        try {
+            synchronized (lockFor(user.getId())) {
+                sequence = wal.appendPut(user.getId(), user.toByteArray());
+                previous = delegate.put(user);
+            }
+        } finally {
+            rotationLock.unlockRead(stamp);
+        }
+        wal.awaitDurable(sequence);
+        return previous;
+    }
+
+    @Override
+    public void putAll(List<User> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Reject the batch before any of it is logged, so the log never holds part of it
+        for (User user : batch) {
+            if (user.getSerializedSize() > WriteAheadLog.MAX_PAYLOAD_BYTES) {
+                throw new IllegalArgumentException("User " + user.getId() + " encodes to "
+                        + user.getSerializedSize() + " bytes, over the write-ahead log limit of "
+                        + WriteAheadLog.MAX_PAYLOAD_BYTES);
+            }
+        }
+        long sequence = 0;
+        long stamp = rotationLock.readLock();
+        try {
+            for (User user : batch) {
+                synchronized (lockFor(user.getId())) {
+                    sequence = wal.appendPut(user.getId(), user.toByteArray());
+                }
+            }
+            // Callers reserve fresh IDs for a batch, so nothing else writes them in between
+            delegate.putAll(batch);
+        } finally {
+            rotationLock.unlockRead(stamp);
+        }
+        wal.awaitDurable(sequence);
+    }
+
+    @Override
+    public User compareAndExchange(User user, long expectedVersion) {
+        long sequence;
+        User current;
+        long stamp = rotationLock.readLock();
+        try {
+            // The stripe lock keeps the log in apply order; the compare itself stays in the delegate
+            synchronized (lockFor(user.getId())) {
+                current = delegate.get(user.getId());
+                if (current == null || current.getVersion() != expectedVersion) {
+                    return current;
+                }
+                sequence = wal.appendPut(user.getId(), user.toByteArray());
+                current = delegate.compareAndExchange(user, expectedVersion);
+            }
+        } finally {
+            rotationLock.unlockRead(stamp);
+        }
+        wal.awaitDurable(sequence);
+        return current;
+    }
+
+    @Override
+    public User remove(int id) {
+        long sequence;
+        User previous;
+        long stamp = rotationLock.readLock();
+        try {
+            synchronized (lockFor(id)) {
+                if (delegate.get(id) == null) {
+                    return null;
+                }
+                sequence = wal.appendDelete(id);
+                previous = delegate.remove(id);
+            }
+        } finally {
+            rotationLock.unlockRead(stamp);
+        }
+        wal.awaitDurable(sequence);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void forEach(Consumer<User> action) {
+        delegate.forEach(action);
+    }
+
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService scheduled;
+        synchronized (this) {
+            scheduled = checkpointer;
+        }
+        if (scheduled != null) {
+            // Interrupting a checkpoint would close the log channel under it, so let it finish
+            scheduled.shutdown();
+            try {
+                scheduled.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        wal.close();
+    }
+
+    private Object lockFor(int id) {
+        return locks[id & (LOCK_STRIPES - 1)];
+    }
+
+    private static User parse(byte[] payload) {
+        try {
+            return User.parseFrom(payload);
+        } catch (InvalidProtocolBufferException e) {
+            // The record passed its checksum, so this is not a torn write
+            throw new UncheckedIOException("Write-ahead log holds an unreadable user record", e);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.grpcdemo.persistence;
+
+import com.example.grpc.User;
+import com.example.grpcdemo.store.UserStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes and loads compact snapshots of a user store
+ *
+ * A snapshot named snapshot-N.snap holds every user and replaces the log
+ * segments numbered below N. File layout, all integers big-endian:
+ * 1. int magic, int version, long N, int ID reservation limit
+ * 2. one [int length][encoded User] record per user
+ * 3. long record count, int CRC32C of everything before it, int magic
+ *
+ * Snapshots are written to a temporary file and renamed into place, so a
+ * crash never leaves a half-written snapshot under the final name. They
+ * are loaded through read-only memory mappings, in windows so files larger
+ * than one mapping still load. One thread finds record boundaries while
+ * the others parse batches of records and insert them into the store.
+ */
+final class Snapshots {
+
+    private static final int MAGIC = 0x55534e50;
+    private static final int VERSION = 2;
+    static final int HEADER_BYTES = 20;
+    private static final int FOOTER_BYTES = 16;
+    static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private static final long MAP_WINDOW_BYTES = 256L << 20;
+    private static final int LOAD_BATCH = 4096;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    private Snapshots() {
+    }
+
+    /**
+     * Writes every user visible in the store to snapshot-N in the directory,
+     * along with the ID reservation limit, and returns the number of users written
+     */
+    static long write(Path directory, long segment, int reservedIdLimit, UserStore store) throws IOException {
+        Path temporary = directory.resolve(PREFIX + segment + ".tmp");
+        long count;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SnapshotWriter writer = new SnapshotWriter(channel);
+            writer.buffer.putInt(MAGIC).putInt(VERSION).putLong(segment).putInt(reservedIdLimit);
+            try {
+                store.forEach(writer::write);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            // Records may leave the buffer with less room than the footer
+            if (writer.buffer.remaining() < FOOTER_BYTES) {
+                writer.flush();
+            }
+            writer.buffer.putLong(writer.count);
+            writer.flush();
+            writer.buffer.putInt((int) writer.crc.getValue()).putInt(MAGIC);
+            writer.flush();
+            channel.force(true);
+            count = writer.count;
+        }
+        Files.move(temporary, path(directory, segment), StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Loads the snapshot into the empty store and returns the number of users loaded
+     *
+     * @throws IOException if the file is truncated, corrupt or not a snapshot
+     */
+    static long load(Path file, UserStore store) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + FOOTER_BYTES) {
+                throw new IOException("Snapshot too short: " + file);
+            }
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER_BYTES, FOOTER_BYTES);
+            long count = footer.getLong(0);
+            if (footer.getInt(12) != MAGIC) {
+                throw new IOException("Snapshot has no footer: " + file);
+            }
+            long end = size - FOOTER_BYTES + 8;
+            CRC32C crc = new CRC32C();
+            for (long position = 0; position < end; position += MAP_WINDOW_BYTES) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW_BYTES, end - position)));
+            }
+            if ((int) crc.getValue() != footer.getInt(8)) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a version " + VERSION + " snapshot: " + file);
+            }
+
+            long recordsEnd = size - FOOTER_BYTES;
+            long position = HEADER_BYTES;
+            long loaded = 0;
+            int threads = Runtime.getRuntime().availableProcessors();
+            ExecutorService parsers = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "snapshot-load");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Bounds the parsed-but-not-inserted batches held in memory
+            ArrayDeque<Future<?>> inFlight = new ArrayDeque<>();
+            try {
+                List<ByteBuffer> batch = new ArrayList<>(LOAD_BATCH);
+                MappedByteBuffer window = null;
+                long windowStart = 0;
+                while (position < recordsEnd) {
+                    if (window == null || position + 4 > windowStart + window.limit()
+                            || position + 4 + window.getInt((int) (position - windowStart)) > windowStart + window.limit()) {
+                        windowStart = position;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                                Math.min(MAP_WINDOW_BYTES, recordsEnd - windowStart));
+                    }
+                    int offset = (int) (position - windowStart);
+                    int length = window.getInt(offset);
+                    if (length < 0 || position + 4 + length > recordsEnd) {
+                        throw new IOException("Snapshot record overruns the file: " + file);
+                    }
+                    batch.add(window.slice(offset + 4, length));
+                    if (batch.size() == LOAD_BATCH) {
+                        submit(parsers, inFlight, batch, store, 2 * threads);
+                        batch = new ArrayList<>(LOAD_BATCH);
+                    }
+                    position += 4 + length;
+                    loaded++;
+                }
+                submit(parsers, inFlight, batch, store, 0);
+            } finally {
+                parsers.shutdownNow();
+            }
+            if (loaded != count) {
+                throw new IOException("Snapshot holds " + loaded + " users but its footer says " + count + ": " + file);
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Queues a batch for parsing, then waits until at most maxInFlight batches are pending
+     */
+    private static void submit(ExecutorService parsers, ArrayDeque<Future<?>> inFlight, List<ByteBuffer> batch,
+                               UserStore store, int maxInFlight) throws IOException {
+        inFlight.add(parsers.submit(() -> {
+            List<User> users = new ArrayList<>(batch.size());
+            for (ByteBuffer record : batch) {
+                users.add(User.parseFrom(record));
+            }
+            store.putAll(users);
+            return null;
+        }));
+        while (inFlight.size() > maxInFlight) {
+            try {
+                inFlight.poll().get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException("Failed to load snapshot", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading snapshot", e);
+            }
+        }
+    }
+
+    /**
+     * ID reservation limit recorded in the snapshot's header
+     */
+    static int reservedIdLimit(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a version " + VERSION + " snapshot: " + file);
+            }
+            return header.getInt(16);
+        }
+    }
+
+    /**
+     * Segment number of the newest snapshot in the directory, or 0 if there is none
+     */
+    static long latest(Path directory) throws IOException {
+        List<Long> segments = list(directory);
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Deletes the snapshots older than the given one, and stray temporary files
+     */
+    static void deleteBefore(Path directory, long segment) throws IOException {
+        for (long older : list(directory)) {
+            if (older < segment) {
+                Files.deleteIfExists(path(directory, older));
+            }
+        }
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(PREFIX) && name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    static Path path(Path directory, long segment) {
+        return directory.resolve(PREFIX + segment + SUFFIX);
+    }
+
+    private static List<Long> list(Path directory) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (var files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .forEach(name -> segments.add(Long.parseLong(
+                            name.substring(PREFIX.length(), name.length() - SUFFIX.length()))));
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * Buffers records and checksums everything it flushes
+     */
+    private static final class SnapshotWriter {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        final CRC32C crc = new CRC32C();
+        long count;
+
+        SnapshotWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(User user) {
+            byte[] bytes = user.toByteArray();
+            try {
+                if (buffer.remaining() < 4 + bytes.length) {
+                    flush();
+                }
+                if (buffer.remaining() < 4 + bytes.length) {
+                    // Larger than the whole buffer; write it straight through
+                    ByteBuffer record = ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).flip();
+                    crc.update(record.duplicate());
+                    while (record.hasRemaining()) {
+                        channel.write(record);
+                    }
+                } else {
+                    buffer.putInt(bytes.length).put(bytes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count++;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
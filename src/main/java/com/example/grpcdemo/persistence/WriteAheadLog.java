@@ -0,0 +1,387 @@
+package com.example.grpcdemo.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, length-prefixed binary log of user store mutations
+ *
+ * The log is a directory of numbered segment files, users-N.wal. Only the
+ * newest segment is appended to; rotate() starts a new one so that a
+ * snapshot can replace the older segments.
+ *
+ * Record layout, all integers big-endian:
+ * 1. int length of everything after the checksum
+ * 2. int CRC32C of everything after the checksum
+ * 3. byte record type (PUT, DELETE or RESERVE)
+ * 4. int user ID, or for RESERVE the ID reservation limit
+ * 5. payload: the encoded User for PUT, empty otherwise
+ *
+ * Opening a log replays its segments through a RecordHandler. A torn or
+ * corrupt tail of the newest segment, left by a crash mid-append, is
+ * truncated away; older segments were forced when they were rotated out,
+ * so damage there fails the open instead. Appends return a
+ * sequence number; awaitDurable() blocks until that record is as durable
+ * as the configured Durability promises.
+ */
+public final class WriteAheadLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final byte RESERVE = 3;
+
+    private static final int PREFIX_BYTES = 8;
+    private static final int BODY_HEADER_BYTES = 5;
+    private static final int MAX_RECORD_BYTES = 16 << 20;
+    /** Largest payload appendPut() accepts; replay treats longer records as corruption */
+    public static final int MAX_PAYLOAD_BYTES = MAX_RECORD_BYTES - BODY_HEADER_BYTES;
+    private static final String SEGMENT_PREFIX = "users-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    /**
+     * Receives records in log order during replay
+     */
+    public interface RecordHandler {
+        void onPut(int id, byte[] payload);
+
+        void onDelete(int id);
+
+        void onReserve(int limit);
+    }
+
+    private final Path directory;
+    private final Durability durability;
+    private final CRC32C crc = new CRC32C();
+    private final ScheduledExecutorService flusher;
+    private final Object durableMonitor = new Object();
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    // Guarded by this
+    private FileChannel channel;
+    private long segment;
+    private long writtenSequence;
+    // Guarded by durableMonitor
+    private long durableSequence;
+    private IOException flushFailure;
+
+    private WriteAheadLog(Path directory, FileChannel channel, long segment, Durability durability, long groupCommitMillis) {
+        this.directory = directory;
+        this.channel = channel;
+        this.segment = segment;
+        this.durability = durability;
+        if (durability == Durability.GROUP_COMMIT) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-group-commit");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::groupCommit, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    /**
+     * Opens or creates the log in the directory, replays every segment
+     * numbered firstSegment or above through the handler and positions the
+     * newest one for appending
+     */
+    public static WriteAheadLog open(Path directory, long firstSegment, Durability durability, long groupCommitMillis,
+                                     RecordHandler replayHandler) throws IOException {
+        if (durability == Durability.GROUP_COMMIT && groupCommitMillis <= 0) {
+            throw new IllegalArgumentException("Group commit interval must be positive: " + groupCommitMillis);
+        }
+        Files.createDirectories(directory);
+        List<Long> segments = new ArrayList<>();
+        for (long number : listSegments(directory)) {
+            if (number >= firstSegment) {
+                segments.add(number);
+            }
+        }
+        for (int i = 0; i < segments.size() - 1; i++) {
+            Path file = segmentPath(directory, segments.get(i));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (replay(channel, replayHandler) != channel.size()) {
+                    throw new IOException("Corrupt record before the end of rotated segment " + file);
+                }
+            }
+        }
+        long last = segments.isEmpty() ? Math.max(firstSegment, 1) : segments.get(segments.size() - 1);
+        Path file = segmentPath(directory, last);
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long validEnd = replay(channel, replayHandler);
+            if (validEnd < channel.size()) {
+                log.warn("Truncating {} bytes of torn or corrupt records at the end of {}", channel.size() - validEnd, file);
+                channel.truncate(validEnd);
+                channel.force(true);
+            }
+            channel.position(validEnd);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new WriteAheadLog(directory, channel, last, durability, groupCommitMillis);
+    }
+
+    /**
+     * Appends a put of the encoded user and returns its sequence number
+     *
+     * @throws IllegalArgumentException if the payload exceeds MAX_PAYLOAD_BYTES
+     */
+    public long appendPut(int id, byte[] payload) {
+        return append(PUT, id, payload);
+    }
+
+    /**
+     * Appends a delete of the user and returns its sequence number
+     */
+    public long appendDelete(int id) {
+        return append(DELETE, id, null);
+    }
+
+    /**
+     * Appends that IDs below the limit may have been handed out and returns its sequence number
+     */
+    public long appendReserve(int limit) {
+        return append(RESERVE, limit, null);
+    }
+
+    /**
+     * Blocks until the record with the given sequence number is durable
+     */
+    public void awaitDurable(long sequence) {
+        if (durability != Durability.GROUP_COMMIT) {
+            return;
+        }
+        synchronized (durableMonitor) {
+            boolean interrupted = false;
+            while (durableSequence < sequence && flushFailure == null) {
+                try {
+                    durableMonitor.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (flushFailure != null) {
+                throw new UncheckedIOException("Write-ahead log flush failed", flushFailure);
+            }
+        }
+    }
+
+    /**
+     * Forces the current segment and starts a new one; every record
+     * appended after this returns lands in the returned segment
+     */
+    public synchronized long rotate() throws IOException {
+        FileChannel next = FileChannel.open(segmentPath(directory, segment + 1),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.force(false);
+        channel.close();
+        channel = next;
+        segment++;
+        markDurable(writtenSequence);
+        return segment;
+    }
+
+    /**
+     * Deletes the segments numbered below the given one, once a snapshot covers them
+     */
+    public void deleteSegmentsBefore(long firstKept) throws IOException {
+        for (long number : listSegments(directory)) {
+            if (number < firstKept) {
+                Files.deleteIfExists(segmentPath(directory, number));
+            }
+        }
+    }
+
+    /**
+     * Sequence number of the last appended record
+     */
+    public synchronized long lastSequence() {
+        return writtenSequence;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (channel.isOpen()) {
+                channel.force(false);
+                channel.close();
+            }
+        }
+        markDurable(Long.MAX_VALUE);
+    }
+
+    private synchronized long append(byte type, int id, byte[] payload) {
+        int payloadLength = payload != null ? payload.length : 0;
+        if (payloadLength > MAX_PAYLOAD_BYTES) {
+            // Replay would stop here and drop this record and everything after it
+            throw new IllegalArgumentException("Record of " + payloadLength
+                    + " bytes exceeds the write-ahead log limit of " + MAX_PAYLOAD_BYTES);
+        }
+        int bodyLength = BODY_HEADER_BYTES + payloadLength;
+        ensureCapacity(PREFIX_BYTES + bodyLength);
+        buffer.clear();
+        buffer.position(PREFIX_BYTES);
+        buffer.put(type).putInt(id);
+        if (payload != null) {
+            buffer.put(payload);
+        }
+        buffer.flip();
+        buffer.position(PREFIX_BYTES);
+        crc.reset();
+        crc.update(buffer);
+        buffer.putInt(0, bodyLength).putInt(4, (int) crc.getValue());
+        buffer.position(0);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (durability == Durability.SYNC) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to write-ahead log", e);
+        }
+        return ++writtenSequence;
+    }
+
+    private void groupCommit() {
+        long target;
+        FileChannel current;
+        synchronized (this) {
+            target = writtenSequence;
+            current = channel;
+        }
+        synchronized (durableMonitor) {
+            if (target <= durableSequence) {
+                return;
+            }
+        }
+        try {
+            // Everything up to target was written before we read it, so one force covers it
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // Rotated or closed in the meantime, which forced the segment itself
+            return;
+        } catch (IOException e) {
+            synchronized (durableMonitor) {
+                flushFailure = e;
+                durableMonitor.notifyAll();
+            }
+            return;
+        }
+        markDurable(target);
+    }
+
+    private void markDurable(long sequence) {
+        synchronized (durableMonitor) {
+            durableSequence = Math.max(durableSequence, sequence);
+            durableMonitor.notifyAll();
+        }
+    }
+
+    private static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (var files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> numbers.add(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(bytes - 1) << 1);
+        }
+    }
+
+    /**
+     * Replays every intact record and returns the offset just past the last one
+     */
+    private static long replay(FileChannel channel, RecordHandler handler) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer prefix = ByteBuffer.allocate(PREFIX_BYTES);
+        CRC32C checksum = new CRC32C();
+        while (position + PREFIX_BYTES <= size) {
+            prefix.clear();
+            readFully(channel, prefix, position);
+            int bodyLength = prefix.getInt(0);
+            int expectedCrc = prefix.getInt(4);
+            if (bodyLength < BODY_HEADER_BYTES || bodyLength > MAX_RECORD_BYTES
+                    || position + PREFIX_BYTES + bodyLength > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(channel, body, position + PREFIX_BYTES);
+            checksum.reset();
+            checksum.update(body.array(), 0, bodyLength);
+            if ((int) checksum.getValue() != expectedCrc) {
+                break;
+            }
+            byte type = body.get(0);
+            int id = body.getInt(1);
+            if (type == PUT) {
+                byte[] payload = new byte[bodyLength - BODY_HEADER_BYTES];
+                body.get(BODY_HEADER_BYTES, payload);
+                handler.onPut(id, payload);
+            } else if (type == DELETE) {
+                handler.onDelete(id);
+            } else if (type == RESERVE) {
+                handler.onReserve(id);
+            } else {
+                break;
+            }
+            position += PREFIX_BYTES + bodyLength;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + target.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of write-ahead log");
+            }
+        }
+    }
+}
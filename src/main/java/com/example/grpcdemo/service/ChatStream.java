@@ -0,0 +1,169 @@
+package com.example.grpcdemo.service;
+
+import com.example.grpc.GetUserRequest;
+import com.example.grpcdemo.logging.LogEvents;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Coalescing, flow-control-aware handler for the ChatWithUsers streams
+ *
+ * Requests are queued as they arrive and answered by a drain task on a
+ * separate executor. While a drain is busy, further requests pile up and
+ * the next pass takes them all, up to maxBatch, as one batch: an idle
+ * stream answers each request at once, a busy one answers in batches
+ * without any timer. Draining stops while the transport reports the call
+ * as not ready and resumes from its onReady handler, so a client that
+ * reads slowly holds queued requests rather than encoded responses.
+ *
+ * Inbound flow control is manual: the client may send maxInFlight requests
+ * ahead, and each answered batch returns its size to that window. A client
+ * that sends faster than it reads therefore stalls on its own window
+ * instead of growing the queue here.
+ */
+final class ChatStream<T> implements StreamObserver<GetUserRequest>, Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatStream.class);
+
+    /**
+     * Sends the responses for one batch of requests
+     */
+    @FunctionalInterface
+    interface Responder<T> {
+        void respond(List<GetUserRequest> batch, StreamObserver<T> observer);
+    }
+
+    private final StreamObserver<T> observer;
+    private final ServerCallStreamObserver<T> call;
+    private final Responder<T> responder;
+    private final Executor executor;
+    private final int maxBatch;
+
+    // Guarded by this
+    private final ArrayDeque<GetUserRequest> pending = new ArrayDeque<>();
+    private boolean scheduled;
+    private boolean halfClosed;
+    private boolean done;
+
+    @SuppressWarnings("unchecked")
+    ChatStream(StreamObserver<T> observer, Responder<T> responder, Executor executor, int maxBatch, int maxInFlight) {
+        this.observer = observer;
+        // Direct callers (tests, benchmarks) pass plain observers without flow control
+        this.call = observer instanceof ServerCallStreamObserver ? (ServerCallStreamObserver<T>) observer : null;
+        this.responder = responder;
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+        if (call != null) {
+            call.setOnCancelHandler(this::cancel);
+            call.setOnReadyHandler(this::schedule);
+            call.disableAutoRequest();
+            call.request(maxInFlight);
+        }
+    }
+
+    @Override
+    public void onNext(GetUserRequest request) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            pending.add(request);
+        }
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        cancel();
+        log.warn(LogEvents.STREAM, "Error in bidirectional streaming: {}", t.getMessage());
+    }
+
+    @Override
+    public void onCompleted() {
+        synchronized (this) {
+            halfClosed = true;
+        }
+        // Completes once everything already queued has been answered
+        schedule();
+    }
+
+    private synchronized void cancel() {
+        done = true;
+        pending.clear();
+    }
+
+    private void schedule() {
+        synchronized (this) {
+            if (scheduled || done) {
+                return;
+            }
+            scheduled = true;
+        }
+        executor.execute(this);
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            List<GetUserRequest> batch;
+            synchronized (this) {
+                if (done) {
+                    scheduled = false;
+                    return;
+                }
+                if (pending.isEmpty() && halfClosed) {
+                    done = true;
+                } else if (pending.isEmpty() || (call != null && !call.isReady())) {
+                    // schedule() takes this lock too, so an onReady or onNext
+                    // that follows sees the drain unscheduled and starts another
+                    scheduled = false;
+                    return;
+                }
+                batch = done ? null : takeBatch();
+            }
+            if (batch == null) {
+                observer.onCompleted();
+                log.info(LogEvents.STREAM, "Chat session completed");
+                return;
+            }
+            try {
+                responder.respond(batch, observer);
+                if (call != null) {
+                    call.request(batch.size());
+                }
+            } catch (IllegalArgumentException e) {
+                fail(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+                return;
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+        }
+    }
+
+    private List<GetUserRequest> takeBatch() {
+        int size = Math.min(pending.size(), maxBatch);
+        List<GetUserRequest> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(pending.poll());
+        }
+        return batch;
+    }
+
+    private void fail(RuntimeException e) {
+        synchronized (this) {
+            done = true;
+            pending.clear();
+            scheduled = false;
+        }
+        observer.onError(e);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.grpcdemo.service;
+
+import com.example.grpc.GetUserResponse;
+import com.example.grpc.User;
+import com.example.grpcdemo.store.ConcurrentIntObjectMap;
+import com.example.grpcdemo.store.UserStore;
+
+/**
+ * Cache of already-encoded GetUserResponse bytes per user ID
+ *
+ * A hit costs one primitive-keyed map lookup and hands back bytes that can
+ * be written to the transport as-is, with no protobuf object creation or
+ * serialization. Writers must call invalidate() after changing a user.
+ */
+public class GetUserResponseCache {
+
+    private final ConcurrentIntObjectMap<byte[]> encoded;
+    private final int maxEntries;
+
+    public GetUserResponseCache(int maxEntries) {
+        this.encoded = new ConcurrentIntObjectMap<>(Math.min(maxEntries, 1 << 16));
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Encoded response for the user, or null if the user does not exist
+     */
+    public byte[] lookup(int id, UserStore users) {
+        byte[] cached = encoded.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        User user = users.get(id);
+        if (user == null) {
+            return null;
+        }
+        byte[] bytes = GetUserResponse.newBuilder().setUser(user).build().toByteArray();
+        if (encoded.size() < maxEntries) {
+            encoded.put(id, bytes);
+            // A writer may have invalidated between our read and our put; never leave stale bytes behind
+            User current = users.get(id);
+            if (current != user && !user.equals(current)) {
+                encoded.remove(id);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Drops the cached response for the user
+     */
+    public void invalidate(int id) {
+        encoded.remove(id);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.grpcdemo.service;
+
+import com.example.grpc.User;
+import com.example.grpcdemo.logging.LogEvents;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flow-control-aware sender for the ListUsers server stream
+ *
+ * Users are sent only while the transport reports the call as ready. When
+ * the client's HTTP/2 window fills up, sending stops and resumes from the
+ * call's onReady handler, so no thread is held while waiting. An optional
+ * per-second rate is enforced by scheduling the next send on a shared
+ * timer instead of sleeping.
+ */
+final class ListUsersStream implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(ListUsersStream.class);
+
+    private final UserCursor cursor;
+    private final UserProjection projection;
+    private final StreamObserver<User> observer;
+    private final ServerCallStreamObserver<User> call;
+    private final int limit;
+    private final long intervalNanos;
+    private final ScheduledExecutorService pacer;
+
+    private int sent;
+    private long nextSendNanos;
+    private boolean timerPending;
+    private boolean done;
+
+    @SuppressWarnings("unchecked")
+    ListUsersStream(UserCursor cursor, UserProjection projection, StreamObserver<User> observer, int limit,
+                    int maxUsersPerSecond, ScheduledExecutorService pacer) {
+        this.cursor = cursor;
+        this.projection = projection;
+        this.observer = observer;
+        // Direct callers (tests, benchmarks) pass plain observers without flow control
+        this.call = observer instanceof ServerCallStreamObserver ? (ServerCallStreamObserver<User>) observer : null;
+        this.limit = limit;
+        this.intervalNanos = maxUsersPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxUsersPerSecond : 0;
+        this.pacer = pacer;
+        this.nextSendNanos = System.nanoTime();
+    }
+
+    /**
+     * Registers the flow-control callbacks and sends whatever the window allows;
+     * must be called from the RPC handler before it returns
+     */
+    void start() {
+        if (call != null) {
+            call.setOnCancelHandler(this::cancel);
+            call.setOnReadyHandler(this);
+        }
+        run();
+    }
+
+    @Override
+    public synchronized void run() {
+        if (done) {
+            return;
+        }
+        try {
+            while (sent < limit) {
+                if (call != null && !call.isReady()) {
+                    // Resumed by the onReady handler once the client drains its window
+                    return;
+                }
+                if (intervalNanos > 0) {
+                    long now = System.nanoTime();
+                    if (now - nextSendNanos < 0) {
+                        scheduleNextSend(nextSendNanos - now);
+                        return;
+                    }
+                    nextSendNanos = Math.max(nextSendNanos, now - intervalNanos) + intervalNanos;
+                }
+                User user = cursor.next();
+                if (user == null) {
+                    break;
+                }
+                observer.onNext(projection.project(user));
+                sent++;
+            }
+            done = true;
+            observer.onCompleted();
+            if (log.isInfoEnabled(LogEvents.STREAM)) {
+                log.info(LogEvents.STREAM, "Streamed {} users", sent);
+            }
+        } catch (RuntimeException e) {
+            done = true;
+            observer.onError(e);
+        }
+    }
+
+    private void scheduleNextSend(long delayNanos) {
+        if (timerPending) {
+            return;
+        }
+        timerPending = true;
+        pacer.schedule(() -> {
+            synchronized (this) {
+                timerPending = false;
+            }
+            run();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void cancel() {
+        done = true;
+    }
+}
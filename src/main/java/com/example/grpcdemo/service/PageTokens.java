@@ -0,0 +1,51 @@
+package com.example.grpcdemo.service;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Encodes and decodes opaque ListUsers page tokens
+ *
+ * A token records the last ID returned and a fingerprint of the filter it
+ * was issued for, so the next page seeks straight past that ID instead of
+ * skipping an offset. Clients must treat tokens as opaque strings.
+ */
+final class PageTokens {
+
+    private static final byte VERSION = 1;
+    private static final int TOKEN_BYTES = 9;
+
+    private PageTokens() {
+    }
+
+    static String encode(int lastId, String department) {
+        ByteBuffer buffer = ByteBuffer.allocate(TOKEN_BYTES)
+                .put(VERSION)
+                .putInt(lastId)
+                .putInt(department.hashCode());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Returns the last ID recorded in the token
+     *
+     * @throws IllegalArgumentException if the token is malformed or was issued for another filter
+     */
+    static int decode(String token, String department) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed page token", e);
+        }
+        if (bytes.length != TOKEN_BYTES || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Malformed page token");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, TOKEN_BYTES - 1);
+        int lastId = buffer.getInt();
+        if (buffer.getInt() != department.hashCode()) {
+            throw new IllegalArgumentException("Page token was issued for a different department filter");
+        }
+        return lastId;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.grpcdemo.service;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Marshaller that passes already-encoded protobuf bytes straight through
+ *
+ * The stream reports its length up front and drains directly into gRPC's
+ * outbound buffer, so sending costs one buffer write.
+ */
+final class PreEncodedMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+
+    static final PreEncodedMarshaller INSTANCE = new PreEncodedMarshaller();
+
+    private PreEncodedMarshaller() {
+    }
+
+    @Override
+    public InputStream stream(byte[] value) {
+        return new EncodedStream(value);
+    }
+
+    @Override
+    public byte[] parse(InputStream stream) {
+        try {
+            return stream.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read encoded message", e);
+        }
+    }
+
+    private static final class EncodedStream extends ByteArrayInputStream implements KnownLength, Drainable {
+
+        EncodedStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            int length = count - pos;
+            target.write(buf, pos, length);
+            pos = count;
+            return length;
+        }
+    }
+}
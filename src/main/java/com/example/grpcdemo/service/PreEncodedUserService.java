@@ -0,0 +1,72 @@
+package com.example.grpcdemo.service;
+
+import com.example.grpc.BatchGetUsersRequest;
+import com.example.grpc.GetUserRequest;
+import com.example.grpc.UserServiceGrpc;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.stub.ServerCalls;
+
+/**
+ * Binds UserServiceImpl with pre-encoded GetUser, ChatWithUsers,
+ * ChatWithUsersBatched and BatchGetUsers responses
+ *
+ * These methods keep their wire contract, but their response marshaller is
+ * swapped for a byte pass-through, so cached GetUserResponse bytes are
+ * written without re-serializing the User. All other methods are bound
+ * exactly as generated.
+ */
+public final class PreEncodedUserService {
+
+    private PreEncodedUserService() {
+    }
+
+    public static ServerServiceDefinition bind(UserServiceImpl service) {
+        ServerServiceDefinition generated = service.bindService();
+        ServiceDescriptor generatedDescriptor = generated.getServiceDescriptor();
+
+        MethodDescriptor<GetUserRequest, byte[]> getUser = preEncoded(UserServiceGrpc.getGetUserMethod());
+        MethodDescriptor<GetUserRequest, byte[]> chatWithUsers = preEncoded(UserServiceGrpc.getChatWithUsersMethod());
+        MethodDescriptor<BatchGetUsersRequest, byte[]> batchGetUsers = preEncoded(UserServiceGrpc.getBatchGetUsersMethod());
+        MethodDescriptor<GetUserRequest, byte[]> chatWithUsersBatched =
+                preEncoded(UserServiceGrpc.getChatWithUsersBatchedMethod());
+
+        // The service descriptor must list the exact method instances that are bound
+        ServiceDescriptor.Builder descriptor = ServiceDescriptor.newBuilder(generatedDescriptor.getName())
+                .setSchemaDescriptor(generatedDescriptor.getSchemaDescriptor())
+                .addMethod(getUser)
+                .addMethod(chatWithUsers)
+                .addMethod(batchGetUsers)
+                .addMethod(chatWithUsersBatched);
+        for (MethodDescriptor<?, ?> method : generatedDescriptor.getMethods()) {
+            if (!isReplaced(method)) {
+                descriptor.addMethod(method);
+            }
+        }
+
+        ServerServiceDefinition.Builder definition = ServerServiceDefinition.builder(descriptor.build())
+                .addMethod(getUser, ServerCalls.asyncUnaryCall(service::getUserEncoded))
+                .addMethod(chatWithUsers, ServerCalls.asyncBidiStreamingCall(service::chatWithUsersEncoded))
+                .addMethod(batchGetUsers, ServerCalls.asyncUnaryCall(service::batchGetUsersEncoded))
+                .addMethod(chatWithUsersBatched, ServerCalls.asyncBidiStreamingCall(service::chatWithUsersBatchedEncoded));
+        for (ServerMethodDefinition<?, ?> method : generated.getMethods()) {
+            if (!isReplaced(method.getMethodDescriptor())) {
+                definition.addMethod(method);
+            }
+        }
+        return definition.build();
+    }
+
+    private static boolean isReplaced(MethodDescriptor<?, ?> method) {
+        return method == UserServiceGrpc.getGetUserMethod()
+                || method == UserServiceGrpc.getChatWithUsersMethod()
+                || method == UserServiceGrpc.getBatchGetUsersMethod()
+                || method == UserServiceGrpc.getChatWithUsersBatchedMethod();
+    }
+
+    private static <Q> MethodDescriptor<Q, byte[]> preEncoded(MethodDescriptor<Q, ?> method) {
+        return method.toBuilder(method.getRequestMarshaller(), PreEncodedMarshaller.INSTANCE).build();
+    }
+}
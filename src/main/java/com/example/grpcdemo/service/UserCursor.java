@@ -0,0 +1,91 @@
+package com.example.grpcdemo.service;
+
+import com.example.grpc.ListUsersRequest;
+import com.example.grpc.User;
+import com.example.grpcdemo.store.DepartmentIndex;
+import com.example.grpcdemo.store.IdIndex;
+import com.example.grpcdemo.store.UserStore;
+
+/**
+ * Walks users in ascending ID order from a ListUsersRequest's position
+ *
+ * With a page token this is a seek, so deep pages cost the same as the
+ * first one; the legacy page number still works by skipping from the start.
+ */
+final class UserCursor {
+
+    private final UserStore users;
+    private final IdIndex idIndex;
+    private final DepartmentIndex departmentIndex;
+    private final String department;
+    private int lastId;
+    private int toSkip;
+    // Read ahead by hasNext() and not yet returned
+    private User peeked;
+    private int returnedId;
+
+    /**
+     * @throws IllegalArgumentException if the request carries an invalid page token
+     */
+    UserCursor(UserStore users, IdIndex idIndex, DepartmentIndex departmentIndex, ListUsersRequest request) {
+        this.users = users;
+        this.idIndex = idIndex;
+        this.departmentIndex = departmentIndex;
+        this.department = request.getDepartment();
+        if (!request.getPageToken().isEmpty()) {
+            this.lastId = PageTokens.decode(request.getPageToken(), department);
+            this.returnedId = lastId;
+        } else {
+            this.toSkip = Math.max(request.getPage() - 1, 0) * request.getPageSize();
+        }
+    }
+
+    /**
+     * Next matching user, or null once the cursor is exhausted
+     */
+    User next() {
+        User user = peeked != null ? peeked : advance();
+        peeked = null;
+        if (user != null) {
+            returnedId = user.getId();
+        }
+        return user;
+    }
+
+    /**
+     * Whether next() has another user, reading it ahead if needed
+     */
+    boolean hasNext() {
+        if (peeked == null) {
+            peeked = advance();
+        }
+        return peeked != null;
+    }
+
+    private User advance() {
+        while (true) {
+            int id = department.isEmpty() ? idIndex.nextAfter(lastId) : departmentIndex.nextAfter(department, lastId);
+            if (id < 0) {
+                return null;
+            }
+            lastId = id;
+            User user = users.get(id);
+            // The indexes may briefly lag a concurrent write, so re-check what was loaded
+            if (user == null || (!department.isEmpty() && !user.getDepartment().equals(department))) {
+                continue;
+            }
+            if (toSkip > 0) {
+                toSkip--;
+                continue;
+            }
+            return user;
+        }
+    }
+
+    /**
+     * Token that resumes after the last user next() returned
+     */
+    String nextPageToken() {
+        return PageTokens.encode(returnedId, department);
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.grpcdemo.service;
+
+import com.example.grpc.User;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.FieldMask;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled read_mask for User responses
+ *
+ * A mask is validated and reduced to a bit set of User field numbers once,
+ * then cached per distinct mask, so a request only pays for one map lookup
+ * (FieldMask memoizes its hash code). project() copies the selected fields
+ * with plain setters instead of FieldMaskUtil's reflective merge, and the
+ * fields left out are never encoded. A mask naming a User field that
+ * project() has no setter for is rejected rather than silently dropped.
+ */
+final class UserProjection {
+
+    static final UserProjection ALL = new UserProjection(-1L);
+
+    // Fields project() copies; compile() rejects any other
+    private static final long COPIED = bit(User.ID_FIELD_NUMBER) | bit(User.NAME_FIELD_NUMBER)
+            | bit(User.EMAIL_FIELD_NUMBER) | bit(User.AGE_FIELD_NUMBER) | bit(User.DEPARTMENT_FIELD_NUMBER)
+            | bit(User.STATUS_FIELD_NUMBER) | bit(User.CREATED_AT_FIELD_NUMBER)
+            | bit(User.UPDATED_AT_FIELD_NUMBER) | bit(User.VERSION_FIELD_NUMBER);
+
+    // Distinct masks seen in practice are few; past this, masks are compiled per request
+    private static final int MAX_CACHED_MASKS = 1024;
+    private static final ConcurrentHashMap<FieldMask, UserProjection> compiled = new ConcurrentHashMap<>();
+
+    private final long fields;
+
+    private UserProjection(long fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Projection for the mask; an empty mask selects every field
+     *
+     * @throws IllegalArgumentException if a path does not name a User field that project() copies
+     */
+    static UserProjection of(FieldMask mask) {
+        if (mask.getPathsCount() == 0) {
+            return ALL;
+        }
+        UserProjection projection = compiled.get(mask);
+        if (projection == null) {
+            projection = compile(mask);
+            if (compiled.size() < MAX_CACHED_MASKS) {
+                compiled.putIfAbsent(mask, projection);
+            }
+        }
+        return projection;
+    }
+
+    private static UserProjection compile(FieldMask mask) {
+        long fields = 0;
+        for (String path : mask.getPathsList()) {
+            FieldDescriptor field = User.getDescriptor().findFieldByName(path);
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown User field in read_mask: " + path);
+            }
+            // Checked against the field number, as shifting a long by 64 or more wraps around
+            if (field.getNumber() >= Long.SIZE || (COPIED & bit(field.getNumber())) == 0) {
+                throw new IllegalArgumentException("User field not supported in read_mask: " + path);
+            }
+            fields |= bit(field.getNumber());
+        }
+        return new UserProjection(fields);
+    }
+
+    boolean isAll() {
+        return fields == -1L;
+    }
+
+    /**
+     * The user with only the selected fields set; the user itself if every field is selected
+     */
+    User project(User user) {
+        if (isAll()) {
+            return user;
+        }
+        User.Builder projected = User.newBuilder();
+        if (selects(User.ID_FIELD_NUMBER)) {
+            projected.setId(user.getId());
+        }
+        if (selects(User.NAME_FIELD_NUMBER)) {
+            projected.setName(user.getName());
+        }
+        if (selects(User.EMAIL_FIELD_NUMBER)) {
+            projected.setEmail(user.getEmail());
+        }
+        if (selects(User.AGE_FIELD_NUMBER)) {
+            projected.setAge(user.getAge());
+        }
+        if (selects(User.DEPARTMENT_FIELD_NUMBER)) {
+            projected.setDepartment(user.getDepartment());
+        }
+        if (selects(User.STATUS_FIELD_NUMBER)) {
+            projected.setStatusValue(user.getStatusValue());
+        }
+        if (selects(User.CREATED_AT_FIELD_NUMBER)) {
+            projected.setCreatedAt(user.getCreatedAt());
+        }
+        if (selects(User.UPDATED_AT_FIELD_NUMBER)) {
+            projected.setUpdatedAt(user.getUpdatedAt());
+        }
+        if (selects(User.VERSION_FIELD_NUMBER)) {
+            projected.setVersion(user.getVersion());
+        }
+        return projected.build();
+    }
+
+    private boolean selects(int fieldNumber) {
+        return (fields & bit(fieldNumber)) != 0;
+    }
+
+    private static long bit(int fieldNumber) {
+        return 1L << fieldNumber;
+    }
+}
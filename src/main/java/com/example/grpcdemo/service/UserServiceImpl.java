@@ -1,33 +1,122 @@
 package com.example.grpcdemo.service;
 
 import com.example.grpc.*;
+import com.example.grpcdemo.logging.LogEvents;
+import com.example.grpcdemo.store.DepartmentIndex;
+import com.example.grpcdemo.store.EmailIndex;
+import com.example.grpcdemo.store.IdAllocator;
+import com.example.grpcdemo.store.IdIndex;
+import com.example.grpcdemo.store.UserStore;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiFunction;
 
 /**
  * Implementation of UserService gRPC service
  * 
  * This service demonstrates all four types of gRPC communication patterns:
- * 1. Unary RPC: CreateUser, GetUser, UpdateUser, DeleteUser
+ * 1. Unary RPC: CreateUser, GetUser, GetUserByEmail, BatchGetUsers, UpdateUser, DeleteUser, ListUsersPage
  * 2. Server Streaming: ListUsers
  * 3. Client Streaming: CreateMultipleUsers
- * 4. Bidirectional Streaming: ChatWithUsers
+ * 4. Bidirectional Streaming: ChatWithUsers, ChatWithUsersBatched, ImportUsers
  */
 @Service
 public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
 
-    // In-memory storage for demo purposes
-    private final Map<Integer, User> users = new ConcurrentHashMap<>();
-    private final AtomicInteger nextId = new AtomicInteger(1);
+    private static final Logger log = LoggerFactory.getLogger(UserServiceImpl.class);
+
+    // In-memory storage keyed by primitive int IDs
+    private final UserStore users;
+    private final GetUserResponseCache responseCache;
+    // Heap or off-heap by grpc.store.mode, see UserStoreConfig
+    private final DepartmentIndex departmentIndex;
+    private final EmailIndex emailIndex;
+    private final IdIndex idIndex = new IdIndex();
+    private final IdAllocator ids;
+    // Timer for rate-limited streams; pacing never sleeps on a gRPC thread
+    private final ScheduledExecutorService pacer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "list-users-pacer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Answers queued ChatWithUsers requests off the gRPC threads, so requests keep arriving to coalesce
+    private final ExecutorService chatDrains = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "chat-drain");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Requests buffered per store commit by the batch ingestion RPCs
+    private final int importChunkSize;
+    // Largest number of IDs one BatchGetUsers request, or one coalesced chat batch, may hold
+    private final int maxBatchIds;
+    // Largest page_size one ListUsersPage request may ask for
+    private final int maxPageSize;
+    // Requests a client stream may have delivered but not yet answered or committed
+    private final int maxInFlight;
+
+    public UserServiceImpl(UserStore users, EmailIndex emailIndex, DepartmentIndex departmentIndex,
+                           GetUserResponseCache responseCache, IdAllocator ids,
+                           @Value("${grpc.import.chunk-size:1000}") int importChunkSize,
+                           @Value("${grpc.batch-get.max-ids:1000}") int maxBatchIds,
+                           @Value("${grpc.list.max-page-size:1000}") int maxPageSize,
+                           @Value("${grpc.stream.max-in-flight:1000}") int maxInFlight) {
+        if (importChunkSize <= 0) {
+            throw new IllegalArgumentException("grpc.import.chunk-size must be positive: " + importChunkSize);
+        }
+        if (maxBatchIds <= 0) {
+            throw new IllegalArgumentException("grpc.batch-get.max-ids must be positive: " + maxBatchIds);
+        }
+        if (maxPageSize <= 0) {
+            throw new IllegalArgumentException("grpc.list.max-page-size must be positive: " + maxPageSize);
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("grpc.stream.max-in-flight must be positive: " + maxInFlight);
+        }
+        this.users = users;
+        this.emailIndex = emailIndex;
+        this.departmentIndex = departmentIndex;
+        this.responseCache = responseCache;
+        this.ids = ids;
+        this.importChunkSize = importChunkSize;
+        this.maxBatchIds = maxBatchIds;
+        this.maxPageSize = maxPageSize;
+        this.maxInFlight = maxInFlight;
+        // Initialize with some sample data unless the store was restored from its log
+        if (users.size() == 0) {
+            initializeSampleData();
+        }
+        users.forEach(user -> {
+            idIndex.add(user.getId());
+            departmentIndex.add(user.getDepartment(), user.getId());
+            if (emailIndex.claim(user.getEmail(), user.getId()) == EmailIndex.Claim.TAKEN) {
+                log.warn("User {} shares email {} with user {}; lookups by email return the latter",
+                        user.getId(), user.getEmail(), emailIndex.lookup(user.getEmail()));
+            }
+            ids.advanceTo(user.getId() + 1);
+        });
+    }
 
-    public UserServiceImpl() {
-        // Initialize with some sample data
-        initializeSampleData();
+    @PreDestroy
+    public void shutdown() {
+        pacer.shutdownNow();
+        chatDrains.shutdownNow();
     }
 
     private void initializeSampleData() {
@@ -40,6 +129,7 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
                 .setStatus(UserStatus.ACTIVE)
                 .setCreatedAt(System.currentTimeMillis())
                 .setUpdatedAt(System.currentTimeMillis())
+                .setVersion(1)
                 .build();
 
         User user2 = User.newBuilder()
@@ -51,11 +141,11 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
                 .setStatus(UserStatus.ACTIVE)
                 .setCreatedAt(System.currentTimeMillis())
                 .setUpdatedAt(System.currentTimeMillis())
+                .setVersion(1)
                 .build();
 
-        users.put(1, user1);
-        users.put(2, user2);
-        nextId.set(3);
+        users.put(user1);
+        users.put(user2);
     }
 
     /**
@@ -64,19 +154,25 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
     @Override
     public void createUser(CreateUserRequest request, StreamObserver<CreateUserResponse> responseObserver) {
         try {
-            int id = nextId.getAndIncrement();
-            User user = User.newBuilder()
-                    .setId(id)
-                    .setName(request.getName())
-                    .setEmail(request.getEmail())
-                    .setAge(request.getAge())
-                    .setDepartment(request.getDepartment())
-                    .setStatus(UserStatus.ACTIVE)
-                    .setCreatedAt(System.currentTimeMillis())
-                    .setUpdatedAt(System.currentTimeMillis())
-                    .build();
+            // Reject a taken email before allocating, so the rejection does not use up an ID
+            if (emailIndex.lookup(request.getEmail()) >= 0) {
+                responseObserver.onError(emailInUse(request.getEmail()));
+                return;
+            }
+            int id = ids.next();
+            if (emailIndex.pin(request.getEmail(), id) == EmailIndex.Claim.TAKEN) {
+                responseObserver.onError(emailInUse(request.getEmail()));
+                return;
+            }
+            User user = newUser(id, request, System.currentTimeMillis());
 
-            users.put(id, user);
+            try {
+                users.put(user);
+            } finally {
+                emailIndex.unpin(user.getEmail(), id);
+            }
+            idIndex.add(id);
+            departmentIndex.add(user.getDepartment(), id);
 
             CreateUserResponse response = CreateUserResponse.newBuilder()
                     .setUser(user)
@@ -86,7 +182,9 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
             responseObserver.onNext(response);
             responseObserver.onCompleted();
 
-            System.out.println("Created user: " + user.getName() + " with ID: " + id);
+            if (log.isInfoEnabled(LogEvents.USER_WRITE)) {
+                log.info(LogEvents.USER_WRITE, "Created user: {} with ID: {}", user.getName(), id);
+            }
         } catch (Exception e) {
             responseObserver.onError(e);
         }
@@ -97,48 +195,251 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
      */
     @Override
     public void getUser(GetUserRequest request, StreamObserver<GetUserResponse> responseObserver) {
+        getUser(request, responseObserver, this::buildGetUserResponse);
+    }
+
+    /**
+     * GetUser with the response served as cached, already-encoded bytes
+     */
+    void getUserEncoded(GetUserRequest request, StreamObserver<byte[]> responseObserver) {
+        getUser(request, responseObserver, this::encodeGetUserResponse);
+    }
+
+    private <T> void getUser(GetUserRequest request, StreamObserver<T> responseObserver, UserLookup<T> lookup) {
         try {
-            User user = users.get(request.getId());
-            if (user == null) {
+            T response = lookup.apply(request.getId(), UserProjection.of(request.getReadMask()));
+            if (response == null) {
                 responseObserver.onError(new RuntimeException("User not found with ID: " + request.getId()));
                 return;
             }
 
-            GetUserResponse response = GetUserResponse.newBuilder()
-                    .setUser(user)
-                    .build();
-
             responseObserver.onNext(response);
             responseObserver.onCompleted();
 
-            System.out.println("Retrieved user: " + user.getName());
+            if (log.isInfoEnabled(LogEvents.USER_READ)) {
+                log.info(LogEvents.USER_READ, "Retrieved user: {}", request.getId());
+            }
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (Exception e) {
             responseObserver.onError(e);
         }
     }
 
     /**
-     * Unary RPC: Update a user
+     * Looks up the response for a user ID with a read_mask applied, or null if there is no such user
+     */
+    @FunctionalInterface
+    private interface UserLookup<T> {
+        T apply(int id, UserProjection projection);
+    }
+
+    /**
+     * Unary RPC: Get many users by ID in one call
      */
     @Override
-    public void updateUser(UpdateUserRequest request, StreamObserver<UpdateUserResponse> responseObserver) {
+    public void batchGetUsers(BatchGetUsersRequest request, StreamObserver<BatchGetUsersResponse> responseObserver) {
+        batchGetUsers(request, responseObserver, this::buildBatchGetUsersResponse);
+    }
+
+    /**
+     * BatchGetUsers with the response assembled from cached, already-encoded bytes
+     */
+    void batchGetUsersEncoded(BatchGetUsersRequest request, StreamObserver<byte[]> responseObserver) {
+        batchGetUsers(request, responseObserver, this::encodeBatchGetUsersResponse);
+    }
+
+    private <T> void batchGetUsers(BatchGetUsersRequest request, StreamObserver<T> responseObserver,
+                                   BiFunction<int[], UserProjection, T> lookup) {
         try {
-            User existingUser = users.get(request.getId());
-            if (existingUser == null) {
-                responseObserver.onError(new RuntimeException("User not found with ID: " + request.getId()));
+            if (request.getIdsCount() > maxBatchIds) {
+                responseObserver.onError(Status.INVALID_ARGUMENT
+                        .withDescription("At most " + maxBatchIds + " IDs per BatchGetUsers request, got "
+                                + request.getIdsCount())
+                        .asRuntimeException());
                 return;
             }
+            int[] requested = new int[request.getIdsCount()];
+            for (int i = 0; i < requested.length; i++) {
+                requested[i] = request.getIds(i);
+            }
 
-            User updatedUser = existingUser.toBuilder()
-                    .setName(request.getName())
-                    .setEmail(request.getEmail())
-                    .setAge(request.getAge())
-                    .setDepartment(request.getDepartment())
-                    .setStatus(request.getStatus())
-                    .setUpdatedAt(System.currentTimeMillis())
-                    .build();
+            responseObserver.onNext(lookup.apply(requested, UserProjection.of(request.getReadMask())));
+            responseObserver.onCompleted();
+
+            if (log.isInfoEnabled(LogEvents.USER_READ)) {
+                log.info(LogEvents.USER_READ, "Retrieved batch of {} users", requested.length);
+            }
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    private BatchGetUsersResponse buildBatchGetUsersResponse(int[] requested, UserProjection projection) {
+        User[] found = users.getAll(requested);
+        BatchGetUsersResponse.Builder response = BatchGetUsersResponse.newBuilder();
+        for (int i = 0; i < requested.length; i++) {
+            if (found[i] != null) {
+                response.addUsers(projection.project(found[i]));
+            } else {
+                response.addMissingIds(requested[i]);
+            }
+        }
+        return response.build();
+    }
+
+    /**
+     * Encodes a BatchGetUsersResponse without building one: a cached
+     * GetUserResponse is field 1 holding a User, byte for byte the same as
+     * one entry of BatchGetUsersResponse.users, so cached responses are
+     * concatenated as they are and only missing_ids is encoded here.
+     * Cached bytes hold every field, so a masked batch is built and encoded instead.
+     */
+    private byte[] encodeBatchGetUsersResponse(int[] requested, UserProjection projection) {
+        if (!projection.isAll()) {
+            return buildBatchGetUsersResponse(requested, projection).toByteArray();
+        }
+        byte[][] parts = new byte[requested.length][];
+        int[] missing = new int[requested.length];
+        int missingCount = 0;
+        int size = 0;
+        int missingBytes = 0;
+        for (int i = 0; i < requested.length; i++) {
+            parts[i] = responseCache.lookup(requested[i], users);
+            if (parts[i] != null) {
+                size += parts[i].length;
+            } else {
+                missing[missingCount++] = requested[i];
+                missingBytes += CodedOutputStream.computeInt32SizeNoTag(requested[i]);
+            }
+        }
+        if (missingCount > 0) {
+            size += CodedOutputStream.computeTagSize(BatchGetUsersResponse.MISSING_IDS_FIELD_NUMBER)
+                    + CodedOutputStream.computeUInt32SizeNoTag(missingBytes) + missingBytes;
+        }
 
-            users.put(request.getId(), updatedUser);
+        byte[] encoded = new byte[size];
+        CodedOutputStream out = CodedOutputStream.newInstance(encoded);
+        try {
+            for (byte[] part : parts) {
+                if (part != null) {
+                    out.writeRawBytes(part);
+                }
+            }
+            if (missingCount > 0) {
+                // Packed encoding, as proto3 uses for repeated scalars
+                out.writeTag(BatchGetUsersResponse.MISSING_IDS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeUInt32NoTag(missingBytes);
+                for (int i = 0; i < missingCount; i++) {
+                    out.writeInt32NoTag(missing[i]);
+                }
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            // Only possible if the size computed above is wrong
+            throw new IllegalStateException("Mis-sized BatchGetUsers response", e);
+        }
+        return encoded;
+    }
+
+    /**
+     * Unary RPC: Get a single user by email address
+     */
+    @Override
+    public void getUserByEmail(GetUserByEmailRequest request, StreamObserver<GetUserResponse> responseObserver) {
+        try {
+            int id = emailIndex.lookup(request.getEmail());
+            User user = id > 0 ? users.get(id) : null;
+            // The index changes beside the store, so confirm the user still has this address
+            if (user == null || !EmailIndex.sameAddress(user.getEmail(), request.getEmail())) {
+                responseObserver.onError(Status.NOT_FOUND
+                        .withDescription("User not found with email: " + request.getEmail())
+                        .asRuntimeException());
+                return;
+            }
+
+            responseObserver.onNext(GetUserResponse.newBuilder().setUser(user).build());
+            responseObserver.onCompleted();
+
+            if (log.isInfoEnabled(LogEvents.USER_READ)) {
+                log.info(LogEvents.USER_READ, "Retrieved user: {}", id);
+            }
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    private GetUserResponse buildGetUserResponse(int id, UserProjection projection) {
+        User user = users.get(id);
+        return user != null ? GetUserResponse.newBuilder().setUser(projection.project(user)).build() : null;
+    }
+
+    private byte[] encodeGetUserResponse(int id, UserProjection projection) {
+        if (projection.isAll()) {
+            return responseCache.lookup(id, users);
+        }
+        // Cached bytes hold every field; a masked response is small, so encode it per request
+        GetUserResponse response = buildGetUserResponse(id, projection);
+        return response != null ? response.toByteArray() : null;
+    }
+
+    /**
+     * Unary RPC: Update a user
+     */
+    @Override
+    public void updateUser(UpdateUserRequest request, StreamObserver<UpdateUserResponse> responseObserver) {
+        // Pin the new address first so no other user can take it while this update is in flight
+        if (emailIndex.pin(request.getEmail(), request.getId()) == EmailIndex.Claim.TAKEN) {
+            responseObserver.onError(emailInUse(request.getEmail()));
+            return;
+        }
+        try {
+            User previousUser;
+            User updatedUser;
+            // Compare-and-swap on the version; an unconditional update retries when it loses a race
+            for (;;) {
+                previousUser = users.get(request.getId());
+                if (previousUser == null) {
+                    responseObserver.onError(new RuntimeException("User not found with ID: " + request.getId()));
+                    return;
+                }
+                if (request.hasExpectedVersion() && previousUser.getVersion() != request.getExpectedVersion()) {
+                    responseObserver.onError(versionConflict(request, previousUser));
+                    return;
+                }
+
+                updatedUser = previousUser.toBuilder()
+                        .setName(request.getName())
+                        .setEmail(request.getEmail())
+                        .setAge(request.getAge())
+                        .setDepartment(request.getDepartment())
+                        .setStatus(request.getStatus())
+                        .setUpdatedAt(System.currentTimeMillis())
+                        .setVersion(previousUser.getVersion() + 1)
+                        .build();
+
+                User witness = users.compareAndExchange(updatedUser, previousUser.getVersion());
+                if (witness == null) {
+                    // Deleted since the read; a delete is never undone by an update
+                    responseObserver.onError(new RuntimeException("User not found with ID: " + request.getId()));
+                    return;
+                }
+                if (witness.getVersion() == previousUser.getVersion()) {
+                    previousUser = witness;
+                    break;
+                }
+                if (request.hasExpectedVersion()) {
+                    responseObserver.onError(versionConflict(request, witness));
+                    return;
+                }
+            }
+            if (!EmailIndex.sameAddress(previousUser.getEmail(), updatedUser.getEmail())) {
+                emailIndex.release(previousUser.getEmail(), previousUser.getId());
+            }
+            responseCache.invalidate(updatedUser.getId());
+            reindexDepartment(previousUser, updatedUser);
 
             UpdateUserResponse response = UpdateUserResponse.newBuilder()
                     .setUser(updatedUser)
@@ -148,12 +449,30 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
             responseObserver.onNext(response);
             responseObserver.onCompleted();
 
-            System.out.println("Updated user: " + updatedUser.getName());
+            if (log.isInfoEnabled(LogEvents.USER_WRITE)) {
+                log.info(LogEvents.USER_WRITE, "Updated user: {}", updatedUser.getName());
+            }
         } catch (Exception e) {
             responseObserver.onError(e);
+        } finally {
+            // Keeps the address if this or a concurrent update stored it, drops it otherwise
+            emailIndex.unpin(request.getEmail(), request.getId());
         }
     }
 
+    private static StatusRuntimeException emailInUse(String email) {
+        return Status.ALREADY_EXISTS
+                .withDescription("Email already in use: " + email)
+                .asRuntimeException();
+    }
+
+    private static StatusRuntimeException versionConflict(UpdateUserRequest request, User current) {
+        return Status.ABORTED
+                .withDescription("User " + request.getId() + " is at version " + current.getVersion()
+                        + ", expected " + request.getExpectedVersion())
+                .asRuntimeException();
+    }
+
     /**
      * Unary RPC: Delete a user
      */
@@ -165,6 +484,10 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
                 responseObserver.onError(new RuntimeException("User not found with ID: " + request.getId()));
                 return;
             }
+            responseCache.invalidate(user.getId());
+            idIndex.remove(user.getId());
+            departmentIndex.remove(user.getDepartment(), user.getId());
+            emailIndex.release(user.getEmail(), user.getId());
 
             DeleteUserResponse response = DeleteUserResponse.newBuilder()
                     .setMessage("User deleted successfully: " + user.getName())
@@ -173,7 +496,32 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
             responseObserver.onNext(response);
             responseObserver.onCompleted();
 
-            System.out.println("Deleted user: " + user.getName());
+            if (log.isInfoEnabled(LogEvents.USER_WRITE)) {
+                log.info(LogEvents.USER_WRITE, "Deleted user: {}", user.getName());
+            }
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    /**
+     * Unary RPC: Get one page of users with a cursor to the next page
+     */
+    @Override
+    public void listUsersPage(ListUsersRequest request, StreamObserver<ListUsersResponse> responseObserver) {
+        try {
+            Page page = collectPage(request);
+
+            ListUsersResponse response = ListUsersResponse.newBuilder()
+                    .addAllUsers(page.users())
+                    .setPageSize(request.getPageSize())
+                    .setNextPageToken(page.nextPageToken())
+                    .build();
+
+            responseObserver.onNext(response);
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (Exception e) {
             responseObserver.onError(e);
         }
@@ -181,123 +529,352 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
 
     /**
      * Server Streaming RPC: Stream all users
+     *
+     * Sends as fast as the client's flow-control window allows, or at
+     * max_users_per_second when the request sets it, without blocking.
      */
     @Override
     public void listUsers(ListUsersRequest request, StreamObserver<User> responseObserver) {
         try {
-            List<User> userList = new ArrayList<>(users.values());
-            
-            // Apply department filter if specified
-            if (!request.getDepartment().isEmpty()) {
-                userList = userList.stream()
-                        .filter(user -> user.getDepartment().equals(request.getDepartment()))
-                        .collect(Collectors.toList());
-            }
+            new ListUsersStream(newCursor(request), UserProjection.of(request.getReadMask()), responseObserver,
+                    request.getPageSize(), request.getMaxUsersPerSecond(), pacer).start();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
 
-            // Apply pagination
-            int startIndex = (request.getPage() - 1) * request.getPageSize();
-            int endIndex = Math.min(startIndex + request.getPageSize(), userList.size());
+    private UserCursor newCursor(ListUsersRequest request) {
+        return new UserCursor(users, idIndex, departmentIndex, request);
+    }
 
-            for (int i = startIndex; i < endIndex; i++) {
-                responseObserver.onNext(userList.get(i));
-                // Simulate some processing time
-                Thread.sleep(100);
+    private Page collectPage(ListUsersRequest request) {
+        int pageSize = request.getPageSize();
+        if (pageSize > maxPageSize) {
+            throw new IllegalArgumentException("At most " + maxPageSize + " users per ListUsersPage request, got "
+                    + pageSize);
+        }
+        UserCursor cursor = newCursor(request);
+        UserProjection projection = UserProjection.of(request.getReadMask());
+        List<User> pageUsers = new ArrayList<>(Math.max(pageSize, 0));
+        while (pageUsers.size() < pageSize) {
+            User user = cursor.next();
+            if (user == null) {
+                return new Page(pageUsers, "");
             }
+            pageUsers.add(projection.project(user));
+        }
+        // Read one user ahead, so an exactly full last page carries no token
+        return new Page(pageUsers, pageSize > 0 && cursor.hasNext() ? cursor.nextPageToken() : "");
+    }
 
-            responseObserver.onCompleted();
-            System.out.println("Streamed " + (endIndex - startIndex) + " users");
-        } catch (Exception e) {
-            responseObserver.onError(e);
+    private void reindexDepartment(User previous, User current) {
+        departmentIndex.move(current.getId(), previous.getDepartment(), current.getDepartment());
+        // Concurrent updates of the same user may interleave their index moves;
+        // re-adding whatever is stored now leaves the latest department indexed
+        User stored = users.get(current.getId());
+        if (stored != null) {
+            departmentIndex.add(stored.getDepartment(), stored.getId());
+        } else {
+            // A delete ran between our write and the move, so undo the re-add
+            departmentIndex.remove(current.getDepartment(), current.getId());
         }
     }
 
+    private record Page(List<User> users, String nextPageToken) {
+    }
+
     /**
      * Client Streaming RPC: Create multiple users from a stream
+     *
+     * Requests are buffered and committed to the store one chunk at a time,
+     * so only the current chunk is held in memory however long the stream is.
      */
     @Override
     public StreamObserver<CreateUserRequest> createMultipleUsers(StreamObserver<CreateUserResponse> responseObserver) {
-        return new StreamObserver<CreateUserRequest>() {
-            private int createdCount = 0;
-            private final List<User> createdUsers = new ArrayList<>();
-
+        return new ChunkedIngestion<>(responseObserver) {
             @Override
-            public void onNext(CreateUserRequest request) {
-                try {
-                    int id = nextId.getAndIncrement();
-                    User user = User.newBuilder()
-                            .setId(id)
-                            .setName(request.getName())
-                            .setEmail(request.getEmail())
-                            .setAge(request.getAge())
-                            .setDepartment(request.getDepartment())
-                            .setStatus(UserStatus.ACTIVE)
-                            .setCreatedAt(System.currentTimeMillis())
-                            .setUpdatedAt(System.currentTimeMillis())
-                            .build();
-
-                    users.put(id, user);
-                    createdUsers.add(user);
-                    createdCount++;
-
-                    System.out.println("Created user in batch: " + user.getName());
-                } catch (Exception e) {
-                    responseObserver.onError(e);
+            void onChunkCommitted(int firstId, int count) {
+                if (log.isInfoEnabled(LogEvents.USER_WRITE)) {
+                    log.info(LogEvents.USER_WRITE, "Created {} users in batch (IDs {}-{})", count, firstId, firstId + count - 1);
                 }
             }
 
-            @Override
-            public void onError(Throwable t) {
-                System.err.println("Error in client streaming: " + t.getMessage());
-            }
-
             @Override
             public void onCompleted() {
+                if (!flush()) {
+                    return;
+                }
                 // Send final response with summary
                 CreateUserResponse response = CreateUserResponse.newBuilder()
-                        .setMessage("Successfully created " + createdCount + " users in batch")
+                        .setMessage("Successfully created " + totalCount + " users in batch")
                         .build();
 
                 responseObserver.onNext(response);
                 responseObserver.onCompleted();
-                System.out.println("Completed batch creation of " + createdCount + " users");
+                if (log.isInfoEnabled(LogEvents.STREAM)) {
+                    log.info(LogEvents.STREAM, "Completed batch creation of {} users", totalCount);
+                }
             }
         };
     }
 
     /**
-     * Bidirectional Streaming RPC: Chat with users
+     * Bidirectional Streaming RPC: Bulk import users with progress acks
+     *
+     * Like CreateMultipleUsers, but acknowledges every committed chunk with
+     * its size and ID range so long imports can track progress.
      */
     @Override
-    public StreamObserver<GetUserRequest> chatWithUsers(StreamObserver<GetUserResponse> responseObserver) {
-        return new StreamObserver<GetUserRequest>() {
+    public StreamObserver<CreateUserRequest> importUsers(StreamObserver<ImportUsersProgress> responseObserver) {
+        return new ChunkedIngestion<>(responseObserver) {
             @Override
-            public void onNext(GetUserRequest request) {
-                try {
-                    User user = users.get(request.getId());
-                    if (user != null) {
-                        GetUserResponse response = GetUserResponse.newBuilder()
-                                .setUser(user)
-                                .build();
-                        responseObserver.onNext(response);
-                        System.out.println("Sent user info for chat: " + user.getName());
-                    } else {
-                        System.out.println("User not found for chat: " + request.getId());
+            void onChunkCommitted(int firstId, int count) {
+                responseObserver.onNext(ImportUsersProgress.newBuilder()
+                        .setChunkCount(count)
+                        .setTotalCount(totalCount)
+                        .setFirstId(firstId)
+                        .setLastId(firstId + count - 1)
+                        .build());
+            }
+
+            @Override
+            public void onCompleted() {
+                if (flush()) {
+                    responseObserver.onCompleted();
+                    if (log.isInfoEnabled(LogEvents.STREAM)) {
+                        log.info(LogEvents.STREAM, "Completed import of {} users", totalCount);
                     }
-                } catch (Exception e) {
-                    responseObserver.onError(e);
                 }
             }
+        };
+    }
 
-            @Override
-            public void onError(Throwable t) {
-                System.err.println("Error in bidirectional streaming: " + t.getMessage());
+    /**
+     * Buffers incoming create requests into chunks of importChunkSize and
+     * commits each chunk with a single ID reservation and store write
+     *
+     * Inbound flow control is manual: the client may send maxInFlight
+     * requests ahead, and each committed chunk returns its size to that
+     * window, so a slow store pushes back on the sender instead of queueing.
+     * A window smaller than importChunkSize shrinks the chunks to fit.
+     */
+    private abstract class ChunkedIngestion<R> implements StreamObserver<CreateUserRequest> {
+
+        private final StreamObserver<R> responseObserver;
+        private final ServerCallStreamObserver<R> call;
+        private final int chunkSize = Math.min(importChunkSize, maxInFlight);
+        private final List<CreateUserRequest> chunk = new ArrayList<>(chunkSize);
+        protected long totalCount;
+        private boolean failed;
+
+        @SuppressWarnings("unchecked")
+        ChunkedIngestion(StreamObserver<R> responseObserver) {
+            this.responseObserver = responseObserver;
+            // Direct callers (tests, benchmarks) pass plain observers without flow control
+            this.call = responseObserver instanceof ServerCallStreamObserver
+                    ? (ServerCallStreamObserver<R>) responseObserver : null;
+            if (call != null) {
+                call.disableAutoRequest();
+                call.request(maxInFlight);
             }
+        }
 
-            @Override
-            public void onCompleted() {
-                responseObserver.onCompleted();
-                System.out.println("Chat session completed");
+        abstract void onChunkCommitted(int firstId, int count);
+
+        @Override
+        public void onNext(CreateUserRequest request) {
+            if (failed) {
+                return;
             }
-        };
+            chunk.add(request);
+            if (chunk.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // Chunks already committed stay in the store; the partial chunk is dropped
+            chunk.clear();
+            log.warn(LogEvents.STREAM, "Error in client streaming: {}", t.getMessage());
+        }
+
+        /**
+         * Commits the buffered chunk; returns false if the stream has failed
+         */
+        boolean flush() {
+            if (failed) {
+                return false;
+            }
+            if (chunk.isEmpty()) {
+                return true;
+            }
+            try {
+                int count = chunk.size();
+                int firstId = commitChunk(chunk);
+                chunk.clear();
+                totalCount += count;
+                onChunkCommitted(firstId, count);
+                if (call != null) {
+                    call.request(count);
+                }
+                return true;
+            } catch (Exception e) {
+                failed = true;
+                chunk.clear();
+                responseObserver.onError(e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Creates users for a chunk of requests in one store operation and returns the first ID;
+     * the chunk's IDs are reserved with a single counter update and are contiguous, and
+     * a chunk holding an email that is already in use fails as a whole
+     */
+    private int commitChunk(List<CreateUserRequest> requests) {
+        int count = requests.size();
+        int firstId = ids.reserve(count);
+        long now = System.currentTimeMillis();
+        List<User> created = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CreateUserRequest request = requests.get(i);
+            if (emailIndex.pin(request.getEmail(), firstId + i) == EmailIndex.Claim.TAKEN) {
+                unpinEmails(created);
+                throw emailInUse(request.getEmail());
+            }
+            created.add(newUser(firstId + i, request, now));
+        }
+        try {
+            users.putAll(created);
+        } finally {
+            unpinEmails(created);
+        }
+        for (User user : created) {
+            idIndex.add(user.getId());
+            departmentIndex.add(user.getDepartment(), user.getId());
+        }
+        return firstId;
+    }
+
+    private void unpinEmails(List<User> created) {
+        for (User user : created) {
+            emailIndex.unpin(user.getEmail(), user.getId());
+        }
+    }
+
+    private static User newUser(int id, CreateUserRequest request, long now) {
+        return User.newBuilder()
+                .setId(id)
+                .setName(request.getName())
+                .setEmail(request.getEmail())
+                .setAge(request.getAge())
+                .setDepartment(request.getDepartment())
+                .setStatus(UserStatus.ACTIVE)
+                .setCreatedAt(now)
+                .setUpdatedAt(now)
+                .setVersion(1)
+                .build();
+    }
+
+    /**
+     * Bidirectional Streaming RPC: Chat with users
+     *
+     * Requests that queue up while earlier ones are answered are looked up
+     * together, and answering pauses while the client is not reading.
+     */
+    @Override
+    public StreamObserver<GetUserRequest> chatWithUsers(StreamObserver<GetUserResponse> responseObserver) {
+        return new ChatStream<>(responseObserver, this::answerChat, chatDrains, maxBatchIds, maxInFlight);
+    }
+
+    /**
+     * ChatWithUsers with responses served as cached, already-encoded bytes
+     */
+    StreamObserver<GetUserRequest> chatWithUsersEncoded(StreamObserver<byte[]> responseObserver) {
+        return new ChatStream<>(responseObserver, (batch, observer) -> {
+            for (GetUserRequest request : batch) {
+                byte[] response = encodeGetUserResponse(request.getId(), UserProjection.of(request.getReadMask()));
+                sendChatResponse(request, response, observer);
+            }
+        }, chatDrains, maxBatchIds, maxInFlight);
+    }
+
+    private void answerChat(List<GetUserRequest> batch, StreamObserver<GetUserResponse> observer) {
+        User[] found = users.getAll(chatIds(batch));
+        for (int i = 0; i < found.length; i++) {
+            GetUserRequest request = batch.get(i);
+            GetUserResponse response = found[i] == null ? null : GetUserResponse.newBuilder()
+                    .setUser(UserProjection.of(request.getReadMask()).project(found[i]))
+                    .build();
+            sendChatResponse(request, response, observer);
+        }
+    }
+
+    private static <T> void sendChatResponse(GetUserRequest request, T response, StreamObserver<T> observer) {
+        if (response != null) {
+            observer.onNext(response);
+            if (log.isInfoEnabled(LogEvents.USER_READ)) {
+                log.info(LogEvents.USER_READ, "Sent user info for chat: {}", request.getId());
+            }
+        } else {
+            if (log.isInfoEnabled(LogEvents.USER_READ)) {
+                log.info(LogEvents.USER_READ, "User not found for chat: {}", request.getId());
+            }
+        }
+    }
+
+    /**
+     * Bidirectional Streaming RPC: Chat with users, one response per coalesced batch
+     *
+     * Each BatchGetUsersResponse answers a run of consecutive requests, so a
+     * chatty client gets one message, and one frame and flush, per batch.
+     */
+    @Override
+    public StreamObserver<GetUserRequest> chatWithUsersBatched(StreamObserver<BatchGetUsersResponse> responseObserver) {
+        return new ChatStream<>(responseObserver,
+                (batch, observer) -> observer.onNext(buildChatBatch(batch)), chatDrains, maxBatchIds, maxInFlight);
+    }
+
+    /**
+     * ChatWithUsersBatched with unmasked batches assembled from cached, already-encoded bytes
+     */
+    StreamObserver<GetUserRequest> chatWithUsersBatchedEncoded(StreamObserver<byte[]> responseObserver) {
+        return new ChatStream<>(responseObserver, (batch, observer) -> {
+            boolean masked = false;
+            for (GetUserRequest request : batch) {
+                masked |= request.getReadMask().getPathsCount() > 0;
+            }
+            observer.onNext(masked ? buildChatBatch(batch).toByteArray()
+                    : encodeBatchGetUsersResponse(chatIds(batch), UserProjection.ALL));
+        }, chatDrains, maxBatchIds, maxInFlight);
+    }
+
+    private BatchGetUsersResponse buildChatBatch(List<GetUserRequest> batch) {
+        int[] requested = chatIds(batch);
+        User[] found = users.getAll(requested);
+        BatchGetUsersResponse.Builder response = BatchGetUsersResponse.newBuilder();
+        for (int i = 0; i < requested.length; i++) {
+            if (found[i] != null) {
+                response.addUsers(UserProjection.of(batch.get(i).getReadMask()).project(found[i]));
+            } else {
+                response.addMissingIds(requested[i]);
+            }
+        }
+        if (log.isInfoEnabled(LogEvents.USER_READ)) {
+            log.info(LogEvents.USER_READ, "Sent batch of {} users for chat", requested.length);
+        }
+        return response.build();
+    }
+
+    private static int[] chatIds(List<GetUserRequest> batch) {
+        int[] requested = new int[batch.size()];
+        for (int i = 0; i < requested.length; i++) {
+            requested[i] = batch.get(i).getId();
+        }
+        return requested;
     }
 }
@@ -0,0 +1,381 @@
+package com.example.grpcdemo.store;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Concurrent open-addressing hash map from primitive int keys to object values
+ *
+ * Keys and values live in parallel primitive/reference arrays, so an entry
+ * costs one int slot and one reference slot instead of a boxed Integer plus
+ * a map node. The table is split into independently locked segments:
+ * 1. Reads never lock and never allocate
+ * 2. Writes lock only the segment that owns the key
+ * 3. compareAndExchange() on a present key takes no lock at all
+ * 4. Removed entries keep their key with a null value until the next rehash
+ *
+ * A rehash swaps every value of the old table for a Forwarded wrapper as it
+ * copies it, so a lock-free exchange can never land in a table that has
+ * already been copied. Readers that meet one return the value it wraps
+ * instead of waiting for the rehash; exchangers retry against the new table.
+ *
+ * Key 0 marks an empty slot and cannot be stored.
+ */
+public final class ConcurrentIntObjectMap<V> {
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final Segment<V>[] segments;
+
+    public ConcurrentIntObjectMap() {
+        this(SEGMENT_COUNT * MIN_SEGMENT_CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentIntObjectMap(int expectedSize) {
+        segments = (Segment<V>[]) new Segment[SEGMENT_COUNT];
+        int perSegment = (int) Math.ceil(Math.max(expectedSize, 1) / (double) SEGMENT_COUNT / LOAD_FACTOR);
+        int capacity = tableSizeFor(Math.max(perSegment, MIN_SEGMENT_CAPACITY));
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment<>(capacity);
+        }
+    }
+
+    /**
+     * Returns the value mapped to the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key == 0) {
+            // 0 marks empty slots, so probing for it would match an unrelated slot
+            return null;
+        }
+        int hash = IntHash.mix(key);
+        Table table = segmentFor(hash).table;
+        int slot = probe(table, key, hash);
+        return slot < 0 ? null : (V) unwrap(VALUES.getAcquire(table.values, slot));
+    }
+
+    /**
+     * Looks up every key, storing the value for keys[i] or null in found[i]
+     *
+     * All keys are hashed before any table is probed, so the independent
+     * probes do not wait on each other's hash computation and their cache
+     * misses can overlap.
+     */
+    @SuppressWarnings("unchecked")
+    public void getAll(int[] keys, V[] found) {
+        int count = keys.length;
+        int[] hashes = new int[count];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = IntHash.mix(keys[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            int key = keys[i];
+            if (key == 0) {
+                found[i] = null;
+                continue;
+            }
+            Table table = segmentFor(hashes[i]).table;
+            int slot = probe(table, key, hashes[i]);
+            found[i] = slot < 0 ? null : (V) unwrap(VALUES.getAcquire(table.values, slot));
+        }
+    }
+
+    /**
+     * Maps the key to the value and returns the previous value, or null
+     */
+    public V put(int key, V value) {
+        checkKey(key);
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        int hash = IntHash.mix(key);
+        return segmentFor(hash).put(key, hash, value);
+    }
+
+    /**
+     * Maps keys[i] to values[i] for the first count entries, taking each
+     * segment's lock once for all of its entries instead of once per entry
+     */
+    public void putAll(int[] keys, V[] values, int count) {
+        // Counting sort of entry positions by segment
+        int[] segmentOf = new int[count];
+        int[] starts = new int[SEGMENT_COUNT + 1];
+        for (int i = 0; i < count; i++) {
+            checkKey(keys[i]);
+            if (values[i] == null) {
+                throw new NullPointerException("values[" + i + "]");
+            }
+            segmentOf[i] = IntHash.mix(keys[i]) >>> (32 - SEGMENT_BITS);
+            starts[segmentOf[i] + 1]++;
+        }
+        for (int s = 0; s < SEGMENT_COUNT; s++) {
+            starts[s + 1] += starts[s];
+        }
+        int[] order = new int[count];
+        int[] next = starts.clone();
+        for (int i = 0; i < count; i++) {
+            order[next[segmentOf[i]]++] = i;
+        }
+        for (int s = 0; s < SEGMENT_COUNT; s++) {
+            if (starts[s] < starts[s + 1]) {
+                segments[s].putAll(keys, values, order, starts[s], starts[s + 1]);
+            }
+        }
+    }
+
+    /**
+     * Maps the key to the value only if it is currently mapped to expected,
+     * compared by identity, without taking a lock
+     *
+     * @return the value mapped before the call, which is expected if the exchange happened,
+     * or null if the key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V compareAndExchange(int key, V expected, V value) {
+        if (key == 0) {
+            return null;
+        }
+        if (expected == null || value == null) {
+            throw new NullPointerException(expected == null ? "expected" : "value");
+        }
+        int hash = IntHash.mix(key);
+        Segment<V> segment = segmentFor(hash);
+        for (;;) {
+            Table table = segment.table;
+            int slot = probe(table, key, hash);
+            if (slot < 0) {
+                return null;
+            }
+            // Never swaps null for a value, so the segment's size needs no update
+            Object witness = VALUES.compareAndExchange(table.values, slot, expected, value);
+            if (!(witness instanceof Forwarded)) {
+                return (V) witness;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Removes the mapping for the key and returns the previous value, or null
+     */
+    public V remove(int key) {
+        if (key == 0) {
+            return null;
+        }
+        int hash = IntHash.mix(key);
+        return segmentFor(hash).remove(key, hash);
+    }
+
+    /**
+     * Number of live mappings; exact only when no writes are in flight
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Visits every live mapping; concurrent writes may or may not be observed
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(IntObjectConsumer<? super V> action) {
+        for (Segment<V> segment : segments) {
+            Table table = segment.table;
+            int[] keys = table.keys;
+            for (int i = 0; i < keys.length; i++) {
+                int k = (int) KEYS.getAcquire(keys, i);
+                if (k != 0) {
+                    Object value = unwrap(VALUES.getAcquire(table.values, i));
+                    if (value != null) {
+                        action.accept(k, (V) value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The value a slot holds, looking through a rehash's Forwarded wrapper
+     *
+     * Writes to a key wait for its segment's rehash, so the wrapped value is
+     * current until the new table is published; a reader that still sees the
+     * old table after that overlaps the later write and may return either.
+     */
+    private static Object unwrap(Object value) {
+        return value instanceof Forwarded forwarded ? forwarded.value : value;
+    }
+
+    /**
+     * Lock-free lookup of the key's slot in the table, or -1
+     */
+    private static int probe(Table table, int key, int hash) {
+        int[] keys = table.keys;
+        int mask = keys.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int k = (int) KEYS.getAcquire(keys, i);
+            if (k == key) {
+                return i;
+            }
+            if (k == 0) {
+                return -1;
+            }
+        }
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        return segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+
+    private static void checkKey(int key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved for empty slots");
+        }
+    }
+
+    private static int tableSizeFor(int n) {
+        int size = Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+        return size < 0 ? 1 << 30 : size;
+    }
+
+    /**
+     * Callback for {@link #forEach}, kept primitive so iteration does not box keys
+     */
+    @FunctionalInterface
+    public interface IntObjectConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    /**
+     * Left in an old table's slots by rehash; holds the value copied to the new table
+     */
+    private static final class Forwarded {
+        final Object value;
+
+        Forwarded(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+
+        Table(int capacity) {
+            this.keys = new int[capacity];
+            this.values = new Object[capacity];
+        }
+    }
+
+    private static final class Segment<V> {
+        private volatile Table table;
+        private volatile int size;
+        // Slots holding a key, including removed entries awaiting rehash
+        private int used;
+
+        Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+
+        synchronized V put(int key, int hash, V value) {
+            return putLocked(key, hash, value);
+        }
+
+        synchronized void putAll(int[] keys, V[] values, int[] order, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int entry = order[i];
+                putLocked(keys[entry], IntHash.mix(keys[entry]), values[entry]);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private V putLocked(int key, int hash, V value) {
+            Table t = table;
+            int slot = findSlot(t, key, hash);
+            if (t.keys[slot] == key) {
+                // Atomic, so a concurrent lock-free exchange is either seen or overwritten, never lost
+                Object previous = VALUES.getAndSet(t.values, slot, value);
+                if (previous == null) {
+                    size++;
+                }
+                return (V) previous;
+            }
+            if (used + 1 > (int) (t.keys.length * LOAD_FACTOR)) {
+                t = rehash(t);
+                slot = findSlot(t, key, hash);
+            }
+            // Publish the value before the key so readers that find the key see the value
+            VALUES.setRelease(t.values, slot, value);
+            KEYS.setRelease(t.keys, slot, key);
+            used++;
+            size++;
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(int key, int hash) {
+            Table t = table;
+            int slot = findSlot(t, key, hash);
+            if (t.keys[slot] != key) {
+                return null;
+            }
+            Object previous = VALUES.getAndSet(t.values, slot, null);
+            if (previous != null) {
+                size--;
+            }
+            return (V) previous;
+        }
+
+        private int findSlot(Table t, int key, int hash) {
+            int[] keys = t.keys;
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while (keys[i] != key && keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private Table rehash(Table old) {
+            // Size for live entries only; removed entries are dropped here
+            int capacity = tableSizeFor(Math.max((int) Math.ceil((size + 1) / LOAD_FACTOR), MIN_SEGMENT_CAPACITY));
+            Table fresh = new Table(capacity);
+            int mask = capacity - 1;
+            int live = 0;
+            for (int i = 0; i < old.keys.length; i++) {
+                int k = old.keys[i];
+                if (k == 0) {
+                    continue;
+                }
+                // Freeze the slot: exchanges after this see Forwarded and retry on the new table.
+                // Removed entries need no freezing, as an exchange never succeeds on null
+                Object value;
+                do {
+                    value = VALUES.getAcquire(old.values, i);
+                } while (value != null && !VALUES.compareAndSet(old.values, i, value, new Forwarded(value)));
+                if (value != null) {
+                    int j = IntHash.mix(k) & mask;
+                    while (fresh.keys[j] != 0) {
+                        j = (j + 1) & mask;
+                    }
+                    fresh.keys[j] = k;
+                    fresh.values[j] = value;
+                    live++;
+                }
+            }
+            used = live;
+            table = fresh;
+            return fresh;
+        }
+    }
+}
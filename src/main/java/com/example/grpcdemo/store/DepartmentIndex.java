@@ -0,0 +1,43 @@
+package com.example.grpcdemo.store;
+
+/**
+ * Concurrent secondary index from department name to user IDs
+ *
+ * IDs can be walked per department in ID order without touching users from
+ * other departments. The index is maintained without a lock across calls
+ * and is allowed to list an ID under a department the user is not in;
+ * readers must re-check the user they load. Missing members are not
+ * allowed: every writer re-adds the user's stored department last.
+ *
+ * HeapDepartmentIndex keeps a sorted set per department; OffHeapDepartmentIndex
+ * keeps bitmaps in direct memory, so its heap does not grow with the number
+ * of users.
+ */
+public interface DepartmentIndex {
+
+    /**
+     * Records that the user with the given ID belongs to the department
+     */
+    void add(String department, int id);
+
+    /**
+     * Removes the user with the given ID from the department
+     */
+    void remove(String department, int id);
+
+    /**
+     * Moves the user with the given ID from one department to another
+     */
+    default void move(int id, String from, String to) {
+        if (from.equals(to)) {
+            return;
+        }
+        add(to, id);
+        remove(from, id);
+    }
+
+    /**
+     * Smallest ID listed under the department that is greater than afterId, or -1
+     */
+    int nextAfter(String department, int afterId);
+}
@@ -0,0 +1,79 @@
+package com.example.grpcdemo.store;
+
+import java.util.Locale;
+
+/**
+ * Concurrent unique index from normalized email address to user ID
+ *
+ * Emails are trimmed and lower-cased before use, so "Ann@Example.com " and
+ * "ann@example.com" are the same address. claim() and pin() are the
+ * uniqueness check: of two concurrent writers claiming one address for
+ * different users, exactly one wins. Empty emails are never indexed.
+ *
+ * A writer claims its address before storing the user and cannot tell
+ * whether the write will commit, while a concurrent update of the same user
+ * may rely on the same entry. Writers therefore pin the address for as long
+ * as they are in flight, and an entry is only dropped once no writer pins it
+ * and the stored user no longer has the address. Which call inserted the
+ * entry does not matter.
+ *
+ * HeapEmailIndex keys a map by the address itself; OffHeapEmailIndex keys
+ * a direct-memory table by a hash of it, so its heap does not grow with the
+ * number of users.
+ */
+public interface EmailIndex {
+
+    /**
+     * Outcome of claiming an address for a user
+     */
+    enum Claim {
+        /** The address was free and now belongs to the user */
+        CLAIMED,
+        /** The address already belonged to the user */
+        ALREADY_OWNED,
+        /** Another user owns the address; nothing changed */
+        TAKEN
+    }
+
+    /**
+     * Trimmed, lower-cased form of the email used as the index key
+     */
+    static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns true if both emails normalize to the same address
+     */
+    static boolean sameAddress(String a, String b) {
+        return normalize(a).equals(normalize(b));
+    }
+
+    /**
+     * Records the email of a user that is already stored as belonging to it
+     */
+    Claim claim(String email, int id);
+
+    /**
+     * Claims the email for a user that is about to be written; unless the
+     * result is TAKEN, the caller must call unpin() once the write has either
+     * committed or failed
+     */
+    Claim pin(String email, int id);
+
+    /**
+     * Ends a pin() and drops the entry if nothing keeps it
+     */
+    void unpin(String email, int id);
+
+    /**
+     * Removes the email from the index if the user owns it, no writer pins it
+     * and the stored user no longer has it
+     */
+    void release(String email, int id);
+
+    /**
+     * Returns the ID of the user owning the email, or -1 if there is none
+     */
+    int lookup(String email);
+}
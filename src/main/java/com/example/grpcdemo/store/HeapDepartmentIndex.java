@@ -0,0 +1,64 @@
+package com.example.grpcdemo.store;
+
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Department index kept as a ConcurrentSkipListSet of IDs per department
+ *
+ * A department whose last ID is removed is dropped from the index.
+ *
+ * Members are boxed Integers in a ConcurrentSkipListSet, about 50 bytes
+ * per member with the skip list's node and index levels, against a bit per
+ * ID for IdIndex. A bitmap per department would cost a directory and a page
+ * even for a department of one user, and department names come from
+ * clients, so the boxed set is kept: it costs in proportion to the members
+ * and gives lock-free ordered seeks for nextAfter.
+ *
+ * Most entries listing a user under the wrong department are transient,
+ * but two interleaved updates of one user (X to Y racing Y to Z) can each
+ * move the ID before the other's move lands, leaving it listed under Y
+ * after the user settles in Z. That stale member stays until the user
+ * moves through Y again; it costs a wasted lookup per scan of Y, never a
+ * wrong result.
+ */
+public class HeapDepartmentIndex implements DepartmentIndex {
+
+    private final ConcurrentHashMap<String, NavigableSet<Integer>> departments = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(String department, int id) {
+        if (department.isEmpty()) {
+            return;
+        }
+        // Add inside compute so a concurrent remove cannot drop the set mid-add
+        departments.compute(department, (d, ids) -> {
+            NavigableSet<Integer> set = ids != null ? ids : new ConcurrentSkipListSet<>();
+            set.add(id);
+            return set;
+        });
+    }
+
+    @Override
+    public void remove(String department, int id) {
+        departments.computeIfPresent(department, (d, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    @Override
+    public int nextAfter(String department, int afterId) {
+        NavigableSet<Integer> ids = departments.get(department);
+        Integer next = ids != null ? ids.higher(afterId) : null;
+        return next != null ? next : -1;
+    }
+
+    /**
+     * Number of departments with at least one indexed ID
+     */
+    int departmentCount() {
+        return departments.size();
+    }
+}
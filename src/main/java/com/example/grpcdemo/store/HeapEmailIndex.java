@@ -0,0 +1,106 @@
+package com.example.grpcdemo.store;
+
+import com.example.grpc.User;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Email index kept in a ConcurrentHashMap keyed by the normalized address
+ *
+ * claim() inserts with a single compute, which makes it the uniqueness
+ * check. Each entry holds its own copy of the address, so the index costs
+ * heap in proportion to the number of users.
+ */
+public class HeapEmailIndex implements EmailIndex {
+
+    private final ConcurrentHashMap<String, Owner> owners = new ConcurrentHashMap<>();
+    // Checked before dropping an entry, so an address stays indexed while its user still has it
+    private final UserStore users;
+
+    public HeapEmailIndex(UserStore users) {
+        this.users = users;
+    }
+
+    @Override
+    public Claim claim(String email, int id) {
+        return claim(email, id, false);
+    }
+
+    @Override
+    public Claim pin(String email, int id) {
+        return claim(email, id, true);
+    }
+
+    @Override
+    public void unpin(String email, int id) {
+        drop(email, id, true);
+    }
+
+    @Override
+    public void release(String email, int id) {
+        drop(email, id, false);
+    }
+
+    @Override
+    public int lookup(String email) {
+        Owner owner = owners.get(EmailIndex.normalize(email));
+        return owner != null ? owner.id : -1;
+    }
+
+    private Claim claim(String email, int id, boolean pin) {
+        String key = EmailIndex.normalize(email);
+        if (key.isEmpty()) {
+            return Claim.ALREADY_OWNED;
+        }
+        Claim[] result = new Claim[1];
+        owners.compute(key, (k, owner) -> {
+            if (owner == null) {
+                owner = new Owner(id);
+                result[0] = Claim.CLAIMED;
+            } else if (owner.id == id) {
+                result[0] = Claim.ALREADY_OWNED;
+            } else {
+                result[0] = Claim.TAKEN;
+                return owner;
+            }
+            if (pin) {
+                owner.pins++;
+            }
+            return owner;
+        });
+        return result[0];
+    }
+
+    private void drop(String email, int id, boolean unpin) {
+        String key = EmailIndex.normalize(email);
+        if (key.isEmpty()) {
+            return;
+        }
+        owners.computeIfPresent(key, (k, owner) -> {
+            if (owner.id != id) {
+                return owner;
+            }
+            if (unpin) {
+                owner.pins--;
+            }
+            // Every write of the address holds a pin, so with none left the stored user cannot gain it
+            if (owner.pins > 0) {
+                return owner;
+            }
+            User stored = users.get(id);
+            return stored != null && EmailIndex.sameAddress(stored.getEmail(), k) ? owner : null;
+        });
+    }
+
+    /**
+     * Entry value; pins is only touched inside the map's compute for its key
+     */
+    private static final class Owner {
+        final int id;
+        int pins;
+
+        Owner(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.grpcdemo.store;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out user IDs from a striped pool of blocks
+ *
+ * Each stripe holds a block of blockSize IDs taken from the shared counter
+ * at a time, and a thread serves next() from the stripe its thread ID hashes
+ * to, so the shared cache line is written once per block instead of once
+ * per user. Blocks belong to stripes rather than threads: a pool thread keeps
+ * hitting the same stripe, and short-lived threads such as one virtual
+ * thread per call share the blocks instead of each reserving its own and
+ * dropping the rest. IDs are unique but not dense: a block may be
+ * interleaved between threads, and the unused tails of blocks are never
+ * handed out after a restart.
+ *
+ * Every advance of the shared counter is reported to a ReservationLog
+ * before any ID from it is returned, so a durable store can restore the
+ * counter past every ID ever issued, even ones whose users were deleted.
+ */
+public final class IdAllocator {
+
+    /**
+     * Records that every ID below the limit may have been handed out
+     */
+    @FunctionalInterface
+    public interface ReservationLog {
+        ReservationLog NONE = limit -> {
+        };
+
+        void reserved(int limit);
+    }
+
+    // Stripes sit a cache line apart in the arrays below so they do not share one
+    private static final int PAD_SHIFT = 3;
+
+    private final AtomicInteger counter;
+    private final int blockSize;
+    private final ReservationLog reservations;
+    private final int stripeMask;
+    // Per stripe, the block's next ID in the high 32 bits and its end in the low 32
+    private final AtomicLongArray blocks;
+    // Serialize a stripe's refills; not monitors, so a virtual thread waiting on a durable log write can unmount
+    private final ReentrantLock[] refills;
+
+    public IdAllocator(int firstId, int blockSize, ReservationLog reservations) {
+        if (firstId <= 0) {
+            throw new IllegalArgumentException("First ID must be positive: " + firstId);
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.counter = new AtomicInteger(firstId);
+        this.blockSize = blockSize;
+        this.reservations = reservations;
+        int stripes = Integer.highestOneBit(Math.max(2 * Runtime.getRuntime().availableProcessors() - 1, 1)) << 1;
+        this.stripeMask = stripes - 1;
+        this.blocks = new AtomicLongArray(stripes << PAD_SHIFT);
+        this.refills = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            refills[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns an ID that has never been returned before
+     */
+    public int next() {
+        int stripe = IntHash.mix((int) Thread.currentThread().getId()) & stripeMask;
+        int index = stripe << PAD_SHIFT;
+        while (true) {
+            long block = blocks.get(index);
+            int next = (int) (block >>> 32);
+            if (next < (int) block) {
+                if (blocks.compareAndSet(index, block, block + (1L << 32))) {
+                    return next;
+                }
+            } else {
+                refill(stripe, index, block);
+            }
+        }
+    }
+
+    private void refill(int stripe, int index, long exhausted) {
+        ReentrantLock lock = refills[stripe];
+        lock.lock();
+        try {
+            // Another thread on this stripe may have refilled it while we waited
+            if (blocks.get(index) == exhausted) {
+                int first = reserve(blockSize);
+                blocks.set(index, ((long) first << 32) | (first + blockSize));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves count contiguous IDs straight from the shared counter and returns the first
+     */
+    public int reserve(int count) {
+        int first = counter.getAndAdd(count);
+        if (first < 0 || first + count < 0) {
+            throw new IllegalStateException("User ID space exhausted");
+        }
+        reservations.reserved(first + count);
+        return first;
+    }
+
+    /**
+     * Moves the shared counter to at least the given ID; for restoring state before use
+     */
+    public void advanceTo(int id) {
+        counter.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Number of block stripes; for tests
+     */
+    int stripeCount() {
+        return stripeMask + 1;
+    }
+}
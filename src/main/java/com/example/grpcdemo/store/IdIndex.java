@@ -0,0 +1,92 @@
+package com.example.grpcdemo.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent ID-ordered index of live user IDs
+ *
+ * IDs are kept as bits in lazily allocated 64K-bit pages, so seeking to the
+ * first ID after a cursor skips empty pages and then 64 IDs per word. This
+ * gives keyset pagination a cheap "next ID after X" without boxing IDs or
+ * sorting the store.
+ */
+public class IdIndex {
+
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+    private static final int WORDS_PER_PAGE = 1 << (PAGE_BITS - 6);
+
+    private final AtomicReferenceArray<AtomicLongArray> pages =
+            new AtomicReferenceArray<>(1 << (31 - PAGE_BITS));
+
+    /**
+     * Marks the ID as live; IDs must be positive
+     */
+    public void add(int id) {
+        if (id <= 0) {
+            throw new IllegalArgumentException("User IDs must be positive: " + id);
+        }
+        int pageIndex = id >>> PAGE_BITS;
+        AtomicLongArray page = pages.get(pageIndex);
+        if (page == null) {
+            pages.compareAndSet(pageIndex, null, new AtomicLongArray(WORDS_PER_PAGE));
+            page = pages.get(pageIndex);
+        }
+        long bit = 1L << id;
+        int word = (id & PAGE_MASK) >>> 6;
+        long current;
+        do {
+            current = page.get(word);
+        } while ((current & bit) == 0 && !page.compareAndSet(word, current, current | bit));
+    }
+
+    /**
+     * Clears the ID
+     */
+    public void remove(int id) {
+        if (id <= 0) {
+            return;
+        }
+        AtomicLongArray page = pages.get(id >>> PAGE_BITS);
+        if (page == null) {
+            return;
+        }
+        long bit = 1L << id;
+        int word = (id & PAGE_MASK) >>> 6;
+        long current;
+        do {
+            current = page.get(word);
+        } while ((current & bit) != 0 && !page.compareAndSet(word, current, current & ~bit));
+    }
+
+    /**
+     * Smallest live ID greater than afterId, or -1 if there is none
+     */
+    public int nextAfter(int afterId) {
+        if (afterId == Integer.MAX_VALUE) {
+            return -1;
+        }
+        int from = Math.max(afterId + 1, 1);
+        for (int pageIndex = from >>> PAGE_BITS; pageIndex < pages.length(); pageIndex++) {
+            AtomicLongArray page = pages.get(pageIndex);
+            if (page == null) {
+                from = (pageIndex + 1) << PAGE_BITS;
+                continue;
+            }
+            int word = (from & PAGE_MASK) >>> 6;
+            long bits = page.get(word) & (-1L << from);
+            while (true) {
+                if (bits != 0) {
+                    return (pageIndex << PAGE_BITS) | (word << 6) | Long.numberOfTrailingZeros(bits);
+                }
+                if (++word == WORDS_PER_PAGE) {
+                    break;
+                }
+                bits = page.get(word);
+            }
+            from = (pageIndex + 1) << PAGE_BITS;
+        }
+        return -1;
+    }
+}
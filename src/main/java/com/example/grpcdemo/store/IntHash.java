@@ -0,0 +1,40 @@
+package com.example.grpcdemo.store;
+
+/**
+ * Hash mixing shared by the store's int-keyed tables and off-heap indexes
+ */
+final class IntHash {
+
+    private IntHash() {
+    }
+
+    /**
+     * Murmur3 finalizer: spreads sequential keys across segments, stripes and slots
+     */
+    static int mix(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * 64-bit hash of the string's chars: FNV-1a, then the Murmur3 64-bit finalizer
+     */
+    static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
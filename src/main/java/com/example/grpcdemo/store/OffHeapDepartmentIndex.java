@@ -0,0 +1,206 @@
+package com.example.grpcdemo.store;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Department index kept as two-level bitmaps in direct memory
+ *
+ * Each department's IDs are split into words of 64 IDs and blocks of 64
+ * words. Only non-empty words are stored, as entries of an OffHeapLongMap
+ * keyed by a hash of the department and the word's index, and each
+ * non-empty block has a summary entry with one bit per non-empty word. An
+ * entry is a 16-byte slot of direct memory in a table kept 30-60% full: a
+ * department dense in its ID range costs under a byte per member, one with
+ * a single member per word 27-53 bytes, and none of it is heap. Empty words
+ * and blocks are removed, so a department whose last ID is removed leaves
+ * nothing behind.
+ *
+ * Departments are identified by a 37-bit hash, so two departments sharing
+ * one are listed together. That only lists IDs the reader then rejects,
+ * which the DepartmentIndex contract already allows.
+ *
+ * nextAfter() visits one summary entry per block of 4096 IDs up to the
+ * largest ID ever added, so a scan that finds nothing more costs about
+ * 250 lookups at a million users. A block's entries share a stripe, guarded
+ * by a StampedLock: writers update the word and its summary bit together
+ * under the write lock, and readers scan a block optimistically.
+ */
+public class OffHeapDepartmentIndex implements DepartmentIndex {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+    private static final int WORD_SHIFT = 6;
+    private static final int BLOCK_SHIFT = 12;
+    // Key layout: department hash in bits 26-63, summary flag in bit 25, word or block index below
+    private static final int INDEX_BITS = 26;
+    private static final long SUMMARY = 1L << 25;
+
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    // Bounds nextAfter's scan
+    private final AtomicInteger maxId = new AtomicInteger();
+
+    public OffHeapDepartmentIndex() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public void add(String department, int id) {
+        if (id <= 0) {
+            throw new IllegalArgumentException("User IDs must be positive: " + id);
+        }
+        if (department.isEmpty()) {
+            return;
+        }
+        if (id > maxId.get()) {
+            maxId.accumulateAndGet(id, Math::max);
+        }
+        long departmentBits = departmentBits(department);
+        int block = id >>> BLOCK_SHIFT;
+        Stripe stripe = stripeFor(departmentBits, block);
+        long stamp = stripe.lock.writeLock();
+        try {
+            long wordKey = departmentBits | (id >>> WORD_SHIFT);
+            long word = stripe.words.get(wordKey, 0);
+            if ((word & (1L << id)) != 0) {
+                return;
+            }
+            if (word == 0) {
+                long summaryKey = departmentBits | SUMMARY | block;
+                stripe.words.put(summaryKey, stripe.words.get(summaryKey, 0) | wordBit(id));
+            }
+            stripe.words.put(wordKey, word | (1L << id));
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void remove(String department, int id) {
+        if (department.isEmpty() || id <= 0) {
+            return;
+        }
+        long departmentBits = departmentBits(department);
+        int block = id >>> BLOCK_SHIFT;
+        Stripe stripe = stripeFor(departmentBits, block);
+        long stamp = stripe.lock.writeLock();
+        try {
+            long wordKey = departmentBits | (id >>> WORD_SHIFT);
+            long word = stripe.words.get(wordKey, 0);
+            if ((word & (1L << id)) == 0) {
+                return;
+            }
+            word &= ~(1L << id);
+            if (word != 0) {
+                stripe.words.put(wordKey, word);
+                return;
+            }
+            stripe.words.remove(wordKey);
+            long summaryKey = departmentBits | SUMMARY | block;
+            long summary = stripe.words.get(summaryKey, 0) & ~wordBit(id);
+            if (summary != 0) {
+                stripe.words.put(summaryKey, summary);
+            } else {
+                stripe.words.remove(summaryKey);
+            }
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int nextAfter(String department, int afterId) {
+        if (department.isEmpty() || afterId == Integer.MAX_VALUE) {
+            return -1;
+        }
+        long departmentBits = departmentBits(department);
+        int from = Math.max(afterId + 1, 1);
+        int lastBlock = maxId.get() >>> BLOCK_SHIFT;
+        for (int block = from >>> BLOCK_SHIFT; block <= lastBlock; block++) {
+            Stripe stripe = stripeFor(departmentBits, block);
+            long stamp = stripe.lock.tryOptimisticRead();
+            int next = stripe.nextInBlock(departmentBits, block, from);
+            if (!stripe.lock.validate(stamp)) {
+                stamp = stripe.lock.readLock();
+                try {
+                    next = stripe.nextInBlock(departmentBits, block, from);
+                } finally {
+                    stripe.lock.unlockRead(stamp);
+                }
+            }
+            if (next >= 0) {
+                return next;
+            }
+            from = (block + 1) << BLOCK_SHIFT;
+        }
+        return -1;
+    }
+
+    /**
+     * Direct memory held by the index's tables
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.words.offHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of stored word and summary entries
+     */
+    int entryCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.words.size();
+        }
+        return count;
+    }
+
+    private Stripe stripeFor(long departmentBits, int block) {
+        int hash = IntHash.mix((int) (departmentBits >>> INDEX_BITS) ^ IntHash.mix(block));
+        return stripes[hash >>> (32 - STRIPE_BITS)];
+    }
+
+    private static long departmentBits(String department) {
+        // The top bit keeps every key non-zero, since 0 marks an empty slot
+        return (IntHash.hash64(department) << INDEX_BITS) | Long.MIN_VALUE;
+    }
+
+    /**
+     * The word's bit in its block's summary
+     */
+    private static long wordBit(int id) {
+        return 1L << ((id >>> WORD_SHIFT) & 63);
+    }
+
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        final OffHeapLongMap words = new OffHeapLongMap(0);
+
+        /**
+         * Smallest ID of the block at or after from, or -1; from must lie in the block
+         */
+        int nextInBlock(long departmentBits, int block, int from) {
+            long summary = words.get(departmentBits | SUMMARY | block, 0);
+            int firstWord = (from >>> WORD_SHIFT) & 63;
+            summary &= -1L << firstWord;
+            while (summary != 0) {
+                int wordInBlock = Long.numberOfTrailingZeros(summary);
+                int wordIndex = (block << WORD_SHIFT) | wordInBlock;
+                long word = words.get(departmentBits | wordIndex, 0);
+                if (wordInBlock == firstWord) {
+                    word &= -1L << from;
+                }
+                if (word != 0) {
+                    return (wordIndex << WORD_SHIFT) | Long.numberOfTrailingZeros(word);
+                }
+                summary &= summary - 1;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.grpcdemo.store;
+
+import com.example.grpc.User;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Email index kept in direct memory, keyed by a 64-bit hash of the address
+ *
+ * Each entry is one 16-byte slot of an OffHeapLongMap, mapping the hash to
+ * the owner's ID and pin count, so the index keeps no address on the heap.
+ * Claims compare addresses only through their hash, so two addresses with
+ * the same hash count as one and the second is refused as taken; among a
+ * million addresses the odds of any such pair are about 1 in 37 million.
+ * lookup() confirms an unpinned entry against the owner's stored record,
+ * so it never returns a user whose address differs.
+ *
+ * The table is split into stripes guarded by a StampedLock, as in
+ * OffHeapUserStore: lookups read optimistically, claims and drops take the
+ * stripe's write lock.
+ */
+public class OffHeapEmailIndex implements EmailIndex {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+    private static final long MISSING = -1;
+
+    private final UserStore users;
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+    public OffHeapEmailIndex(UserStore users, int expectedSize) {
+        this.users = users;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe(Math.max(expectedSize, 1) / STRIPE_COUNT);
+        }
+    }
+
+    @Override
+    public Claim claim(String email, int id) {
+        return claim(email, id, false);
+    }
+
+    @Override
+    public Claim pin(String email, int id) {
+        return claim(email, id, true);
+    }
+
+    @Override
+    public void unpin(String email, int id) {
+        drop(email, id, true);
+    }
+
+    @Override
+    public void release(String email, int id) {
+        drop(email, id, false);
+    }
+
+    @Override
+    public int lookup(String email) {
+        String address = EmailIndex.normalize(email);
+        if (address.isEmpty()) {
+            return -1;
+        }
+        long key = key(address);
+        Stripe stripe = stripeFor(key);
+        long entry;
+        long stamp = stripe.lock.tryOptimisticRead();
+        entry = stripe.owners.get(key, MISSING);
+        if (!stripe.lock.validate(stamp)) {
+            stamp = stripe.lock.readLock();
+            try {
+                entry = stripe.owners.get(key, MISSING);
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        if (entry == MISSING) {
+            return -1;
+        }
+        int id = ownerOf(entry);
+        if (pinsOf(entry) == 0) {
+            // Unpinned entries belong to a stored user; a different address there is a hash collision
+            User stored = users.get(id);
+            if (stored == null || !EmailIndex.sameAddress(stored.getEmail(), address)) {
+                return -1;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Direct memory held by the index's tables
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.owners.offHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of indexed addresses
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.owners.size();
+        }
+        return size;
+    }
+
+    private Claim claim(String email, int id, boolean pin) {
+        String address = EmailIndex.normalize(email);
+        if (address.isEmpty()) {
+            return Claim.ALREADY_OWNED;
+        }
+        long key = key(address);
+        Stripe stripe = stripeFor(key);
+        long stamp = stripe.lock.writeLock();
+        try {
+            long entry = stripe.owners.get(key, MISSING);
+            Claim result;
+            if (entry == MISSING) {
+                entry = entry(id, 0);
+                result = Claim.CLAIMED;
+            } else if (ownerOf(entry) == id) {
+                result = Claim.ALREADY_OWNED;
+            } else {
+                return Claim.TAKEN;
+            }
+            stripe.owners.put(key, pin ? entry + 1 : entry);
+            return result;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    private void drop(String email, int id, boolean unpin) {
+        String address = EmailIndex.normalize(email);
+        if (address.isEmpty()) {
+            return;
+        }
+        long key = key(address);
+        Stripe stripe = stripeFor(key);
+        long stamp = stripe.lock.writeLock();
+        try {
+            long entry = stripe.owners.get(key, MISSING);
+            if (entry == MISSING || ownerOf(entry) != id) {
+                return;
+            }
+            if (unpin && pinsOf(entry) > 0) {
+                entry--;
+            }
+            // Every write of the address holds a pin, so with none left the stored user cannot gain it
+            if (pinsOf(entry) > 0) {
+                stripe.owners.put(key, entry);
+                return;
+            }
+            User stored = users.get(id);
+            if (stored != null && EmailIndex.sameAddress(stored.getEmail(), address)) {
+                stripe.owners.put(key, entry);
+            } else {
+                stripe.owners.remove(key);
+            }
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    private Stripe stripeFor(long key) {
+        return stripes[(int) (key >>> (64 - STRIPE_BITS))];
+    }
+
+    private static long key(String address) {
+        long hash = IntHash.hash64(address);
+        // 0 marks an empty slot
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * Entries pack the owner's ID into the high 32 bits and its pin count into the low 32
+     */
+    private static long entry(int id, int pins) {
+        return ((long) id << 32) | pins;
+    }
+
+    private static int ownerOf(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int pinsOf(long entry) {
+        return (int) entry;
+    }
+
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        final OffHeapLongMap owners;
+
+        Stripe(int expectedSize) {
+            this.owners = new OffHeapLongMap(expectedSize);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.grpcdemo.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Open-addressing map from long keys to long values held in direct memory
+ *
+ * Slots are 16 bytes, key then value, and key 0 marks an empty slot, so
+ * callers must never use it. Deletes shift later entries back instead of
+ * leaving tombstones. The map takes no locks: writers must hold their
+ * owner's write lock, while get() may run under an optimistic read and
+ * then returns garbage rather than failing if a writer interferes, so the
+ * caller must validate before using the result.
+ */
+final class OffHeapLongMap {
+
+    private static final int SLOT_BYTES = 16;
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private volatile ByteBuffer table;
+    private int size;
+
+    OffHeapLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) Math.ceil(expectedSize / LOAD_FACTOR), MIN_CAPACITY) - 1) << 1;
+        this.table = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+    }
+
+    /**
+     * Value mapped to the key, or missing if there is none
+     */
+    long get(long key, long missing) {
+        ByteBuffer t = table;
+        int mask = t.capacity() / SLOT_BYTES - 1;
+        // Bounded so an optimistic read of a table under modification cannot spin forever
+        for (int probes = 0, i = slotFor(key, mask); probes <= mask; probes++, i = (i + 1) & mask) {
+            long k = t.getLong(i * SLOT_BYTES);
+            if (k == key) {
+                return t.getLong(i * SLOT_BYTES + 8);
+            }
+            if (k == 0) {
+                return missing;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Maps the key to the value, replacing any previous value
+     */
+    void put(long key, long value) {
+        int slot = findSlot(table, key);
+        if (table.getLong(slot * SLOT_BYTES) != key) {
+            if (size + 1 > (int) (capacity() * LOAD_FACTOR)) {
+                resize(capacity() * 2);
+                slot = findSlot(table, key);
+            }
+            size++;
+        }
+        // Value first, so an optimistic reader never sees the key with a stale value
+        table.putLong(slot * SLOT_BYTES + 8, value);
+        table.putLong(slot * SLOT_BYTES, key);
+    }
+
+    /**
+     * Removes the key's mapping, if any
+     */
+    void remove(long key) {
+        ByteBuffer t = table;
+        int mask = capacity() - 1;
+        int slot = findSlot(t, key);
+        if (t.getLong(slot * SLOT_BYTES) != key) {
+            return;
+        }
+        int hole = slot;
+        for (int i = (slot + 1) & mask; ; i = (i + 1) & mask) {
+            long k = t.getLong(i * SLOT_BYTES);
+            if (k == 0) {
+                break;
+            }
+            int home = slotFor(k, mask);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                t.putLong(hole * SLOT_BYTES + 8, t.getLong(i * SLOT_BYTES + 8));
+                t.putLong(hole * SLOT_BYTES, k);
+                hole = i;
+            }
+        }
+        t.putLong(hole * SLOT_BYTES, 0);
+        size--;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Direct memory held by the table
+     */
+    long offHeapBytes() {
+        return table.capacity();
+    }
+
+    private int capacity() {
+        return table.capacity() / SLOT_BYTES;
+    }
+
+    private static int slotFor(long key, int mask) {
+        return IntHash.mix((int) (key ^ (key >>> 32))) & mask;
+    }
+
+    private static int findSlot(ByteBuffer t, long key) {
+        int mask = t.capacity() / SLOT_BYTES - 1;
+        int i = slotFor(key, mask);
+        while (true) {
+            long k = t.getLong(i * SLOT_BYTES);
+            if (k == key || k == 0) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void resize(int newCapacity) {
+        ByteBuffer old = table;
+        ByteBuffer fresh = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+        int mask = newCapacity - 1;
+        for (int i = 0; i < old.capacity() / SLOT_BYTES; i++) {
+            long key = old.getLong(i * SLOT_BYTES);
+            if (key != 0) {
+                int j = slotFor(key, mask);
+                while (fresh.getLong(j * SLOT_BYTES) != 0) {
+                    j = (j + 1) & mask;
+                }
+                fresh.putLong(j * SLOT_BYTES, key);
+                fresh.putLong(j * SLOT_BYTES + 8, old.getLong(i * SLOT_BYTES + 8));
+            }
+        }
+        table = fresh;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.grpcdemo.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Allocator for variable-length records in off-heap direct ByteBuffer slabs
+ *
+ * Blocks are carved from fixed-size slabs in power-of-two size classes.
+ * Freed blocks go onto a per-class free list and are reused before the
+ * current slab is bumped, so updates and deletes do not leak space. Each
+ * block starts with an int header holding its size class in the top 8 bits
+ * and payload length in the low 24, so a location alone is enough to read
+ * or free it; payloads are limited to 16 MB - 1 even in larger slabs.
+ *
+ * Locations pack the slab index into the high 32 bits and the byte offset
+ * into the low 32 bits. The free lists are long arrays on the heap, so
+ * churn costs 8 bytes of heap per freed block until the block is reused.
+ * All methods are thread-safe.
+ */
+final class SlabAllocator {
+
+    private static final int HEADER_BYTES = Integer.BYTES;
+    private static final int MIN_CLASS_SHIFT = 5;
+    private static final int LENGTH_MASK = (1 << 24) - 1;
+
+    private final int slabSize;
+    // Copy-on-write so readers can resolve a slab without taking the allocator lock
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private final long[][] freeLists;
+    private final int[] freeCounts;
+    private int bumpOffset;
+    private long allocatedBytes;
+
+    SlabAllocator(int slabSize) {
+        if (Integer.bitCount(slabSize) != 1 || slabSize < (1 << MIN_CLASS_SHIFT)) {
+            throw new IllegalArgumentException("Slab size must be a power of two of at least 32 bytes: " + slabSize);
+        }
+        this.slabSize = slabSize;
+        int classes = Integer.numberOfTrailingZeros(slabSize) - MIN_CLASS_SHIFT + 1;
+        this.freeLists = new long[classes][];
+        this.freeCounts = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            freeLists[i] = new long[16];
+        }
+        this.bumpOffset = slabSize;
+    }
+
+    /**
+     * Allocates a block for the payload, copies it in and returns the block's location
+     */
+    synchronized long allocate(byte[] payload) {
+        if (payload.length > LENGTH_MASK) {
+            // The length would spill into the size-class bits of the header
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes exceeds the "
+                    + LENGTH_MASK + "-byte record limit");
+        }
+        int sizeClass = sizeClassFor(payload.length + HEADER_BYTES);
+        long location;
+        if (freeCounts[sizeClass] > 0) {
+            location = freeLists[sizeClass][--freeCounts[sizeClass]];
+        } else {
+            int blockSize = 1 << (sizeClass + MIN_CLASS_SHIFT);
+            if (bumpOffset + blockSize > slabSize) {
+                ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+                grown[slabs.length] = ByteBuffer.allocateDirect(slabSize);
+                slabs = grown;
+                bumpOffset = 0;
+            }
+            location = ((long) (slabs.length - 1) << 32) | bumpOffset;
+            bumpOffset += blockSize;
+        }
+        ByteBuffer slab = slabs[slabIndex(location)];
+        int offset = offset(location);
+        slab.putInt(offset, (sizeClass << 24) | payload.length);
+        slab.put(offset + HEADER_BYTES, payload);
+        allocatedBytes += 1L << (sizeClass + MIN_CLASS_SHIFT);
+        return location;
+    }
+
+    /**
+     * Returns the block to its size class's free list
+     */
+    synchronized void free(long location) {
+        int sizeClass = slabs[slabIndex(location)].getInt(offset(location)) >>> 24;
+        if (freeCounts[sizeClass] == freeLists[sizeClass].length) {
+            freeLists[sizeClass] = Arrays.copyOf(freeLists[sizeClass], freeCounts[sizeClass] * 2);
+        }
+        freeLists[sizeClass][freeCounts[sizeClass]++] = location;
+        allocatedBytes -= 1L << (sizeClass + MIN_CLASS_SHIFT);
+    }
+
+    /**
+     * Copies the block's payload onto the heap. Callers that do not hold the
+     * owning record's lock must validate the result, since the block may be
+     * freed and reused while it is being copied.
+     */
+    byte[] read(long location) {
+        ByteBuffer slab = slabs[slabIndex(location)];
+        int offset = offset(location);
+        int length = slab.getInt(offset) & LENGTH_MASK;
+        if (offset + HEADER_BYTES + length > slabSize) {
+            throw new IllegalStateException("Block at " + location + " is not a live record");
+        }
+        byte[] payload = new byte[length];
+        slab.get(offset + HEADER_BYTES, payload);
+        return payload;
+    }
+
+    /**
+     * Bytes held by live blocks, including header and size-class rounding
+     */
+    synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    int slabCount() {
+        return slabs.length;
+    }
+
+    private int sizeClassFor(int blockBytes) {
+        if (blockBytes > slabSize) {
+            throw new IllegalArgumentException("Record of " + blockBytes + " bytes exceeds slab size " + slabSize);
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(blockBytes, 1 << MIN_CLASS_SHIFT) - 1);
+        return shift - MIN_CLASS_SHIFT;
+    }
+
+    private static int slabIndex(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+}
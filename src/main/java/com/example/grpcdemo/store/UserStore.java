@@ -0,0 +1,66 @@
+package com.example.grpcdemo.store;
+
+import com.example.grpc.User;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage abstraction for users keyed by their int ID
+ *
+ * UserServiceImpl only talks to this interface, so the backing structure
+ * can change without touching the RPC handlers.
+ */
+public interface UserStore {
+
+    /**
+     * Returns the user with the given ID, or null if there is none
+     */
+    User get(int id);
+
+    /**
+     * Looks up every ID in one call; element i of the result is the user
+     * with ids[i], or null if there is none
+     */
+    default User[] getAll(int[] ids) {
+        User[] found = new User[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            found[i] = get(ids[i]);
+        }
+        return found;
+    }
+
+    /**
+     * Stores the user under its ID and returns the previous user, or null
+     */
+    User put(User user);
+
+    /**
+     * Stores a batch of users in one operation
+     */
+    void putAll(List<User> batch);
+
+    /**
+     * Atomically stores the user only if the stored user with its ID has the
+     * expected version
+     *
+     * @return the user stored before the call, whose version equals expectedVersion
+     * exactly when the update was applied, or null if there is no such user
+     */
+    User compareAndExchange(User user, long expectedVersion);
+
+    /**
+     * Removes the user with the given ID and returns it, or null
+     */
+    User remove(int id);
+
+    /**
+     * Number of stored users
+     */
+    int size();
+
+    /**
+     * Visits every stored user; concurrent writes may or may not be observed
+     */
+    void forEach(Consumer<User> action);
+}
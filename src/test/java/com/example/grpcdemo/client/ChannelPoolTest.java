@@ -0,0 +1,146 @@
+package com.example.grpcdemo.client;
+
+import com.example.grpc.UserServiceGrpc;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for least-outstanding-requests spreading over pooled channels
+ */
+class ChannelPoolTest {
+
+    private final List<FakeChannel> members = new ArrayList<>();
+    private final ChannelPool pool = new ChannelPool(3, i -> {
+        FakeChannel channel = new FakeChannel();
+        members.add(channel);
+        return channel;
+    });
+
+    @Test
+    void spreadsConcurrentCallsOverIdleMembers() {
+        for (int i = 0; i < 6; i++) {
+            start();
+        }
+        assertArrayEquals(new int[]{2, 2, 2}, pool.outstanding());
+        for (FakeChannel member : members) {
+            assertEquals(2, member.calls.size());
+        }
+    }
+
+    @Test
+    void sendsNewCallsToTheMemberWithFewestInFlight() {
+        for (int i = 0; i < 6; i++) {
+            start();
+        }
+        FakeChannel drained = members.get(1);
+        drained.calls.get(0).close(Status.OK);
+        drained.calls.get(1).close(Status.CANCELLED);
+        assertArrayEquals(new int[]{2, 0, 2}, pool.outstanding());
+
+        start();
+        start();
+        assertEquals(4, drained.calls.size());
+        assertArrayEquals(new int[]{2, 2, 2}, pool.outstanding());
+    }
+
+    @Test
+    void unstartedCallsAreNotCounted() {
+        pool.newCall(UserServiceGrpc.getGetUserMethod(), CallOptions.DEFAULT);
+        assertArrayEquals(new int[]{0, 0, 0}, pool.outstanding());
+    }
+
+    @Test
+    void shutdownReachesEveryMember() throws InterruptedException {
+        assertTrue(pool.shutdown().awaitTermination(1, TimeUnit.SECONDS));
+        assertTrue(members.stream().allMatch(FakeChannel::isShutdown));
+    }
+
+    private void start() {
+        pool.newCall(UserServiceGrpc.getGetUserMethod(), CallOptions.DEFAULT)
+                .start(new ClientCall.Listener<>() {
+                }, new Metadata());
+    }
+
+    private static final class FakeChannel extends ManagedChannel {
+        final List<FakeCall<?, ?>> calls = new ArrayList<>();
+        private boolean shutdown;
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions options) {
+            FakeCall<ReqT, RespT> call = new FakeCall<>();
+            calls.add(call);
+            return call;
+        }
+
+        @Override
+        public String authority() {
+            return "localhost:9090";
+        }
+
+        @Override
+        public ManagedChannel shutdown() {
+            shutdown = true;
+            return this;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public ManagedChannel shutdownNow() {
+            return shutdown();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+    }
+
+    private static final class FakeCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+        private Listener<RespT> listener;
+
+        void close(Status status) {
+            listener.onClose(status, new Metadata());
+        }
+
+        @Override
+        public void start(Listener<RespT> listener, Metadata headers) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+        }
+
+        @Override
+        public void halfClose() {
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.grpcdemo.client;
+
+import com.example.grpc.CreateUserRequest;
+import com.example.grpc.ImportUsersProgress;
+import com.example.grpc.UserServiceGrpc;
+import com.example.grpcdemo.service.GetUserResponseCache;
+import com.example.grpcdemo.service.UserServiceImpl;
+import com.example.grpcdemo.store.HeapDepartmentIndex;
+import com.example.grpcdemo.store.HeapEmailIndex;
+import com.example.grpcdemo.store.HeapUserStore;
+import com.example.grpcdemo.store.IdAllocator;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the load generator's options, key distributions and pacing against a live server
+ */
+class LoadGeneratorTest {
+
+    private UserServiceImpl service;
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        HeapUserStore store = new HeapUserStore(1_024);
+        service = new UserServiceImpl(store, new HeapEmailIndex(store), new HeapDepartmentIndex(),
+                new GetUserResponseCache(1_000),
+                new IdAllocator(1, 256, IdAllocator.ReservationLog.NONE), 100, 1_000, 1_000, 1_000);
+        server = ServerBuilder.forPort(0).addService(service).build().start();
+        channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        service.shutdown();
+    }
+
+    @Test
+    void zipfianKeysFavourTheLowestAndStayInRange() {
+        KeyDistribution keys = KeyDistribution.zipfian(1_000, 0.99);
+        int[] counts = new int[1_000];
+        int draws = 200_000;
+        for (int i = 0; i < draws; i++) {
+            counts[keys.next()]++;
+        }
+        // Key 0 has probability 1 / zeta(1000, 0.99), about 13%
+        assertEquals(0.13, counts[0] / (double) draws, 0.02);
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[10] && counts[10] > counts[500]);
+    }
+
+    @Test
+    void uniformKeysCoverTheKeySpaceEvenly() {
+        KeyDistribution keys = KeyDistribution.uniform(10);
+        int[] counts = new int[10];
+        for (int i = 0; i < 100_000; i++) {
+            counts[keys.next()]++;
+        }
+        for (int count : counts) {
+            assertEquals(10_000, count, 600);
+        }
+        assertThrows(IllegalArgumentException.class, () -> KeyDistribution.zipfian(10, 1.0));
+    }
+
+    @Test
+    void parsesOptions() {
+        LoadGenerator.Options options = LoadGenerator.Options.parse("--rpc=getuserbyemail", "--rate=2500",
+                "--duration=250ms", "--warmup=2", "--keys=zipf", "--preload=10");
+        assertEquals(LoadGenerator.Rpc.GET_USER_BY_EMAIL, options.rpc);
+        assertTrue(options.openLoop());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(250), options.durationNanos);
+        assertEquals(TimeUnit.SECONDS.toNanos(2), options.warmupNanos);
+        assertTrue(options.zipfian);
+
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse("--threads=4"));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse("--rate=fast"));
+        // Emails of existing users are only known for preloaded ones
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse("--rpc=UpdateUser"));
+    }
+
+    @Test
+    void openLoopIssuesTheScheduledNumberOfOperations() throws InterruptedException {
+        LoadGenerator.Options options = LoadGenerator.Options.parse("--rpc=UpdateUser", "--rate=400",
+                "--warmup=200ms", "--duration=1s", "--preload=300", "--keys=zipf");
+        LoadGenerator.Result result = new LoadGenerator(options, channel).run(null);
+
+        assertEquals(400, result.completed(), 2);
+        assertTrue(result.errors.isEmpty(), () -> "Errors: " + result.errors);
+        // Each response time runs from the scheduled start, so it is never shorter than the service time
+        assertTrue(result.responseTime.getValueAtPercentile(50) >= result.serviceTime.getValueAtPercentile(50));
+        assertTrue(result.responseTime.getMaxValue() >= result.serviceTime.getMaxValue());
+    }
+
+    @Test
+    void stalledPreloadFailsWithTheUnacknowledgedCount() throws IOException, InterruptedException {
+        // Accepts the import but never acknowledges or completes it
+        Server stalled = ServerBuilder.forPort(0).addService(new UserServiceGrpc.UserServiceImplBase() {
+            @Override
+            public StreamObserver<CreateUserRequest> importUsers(StreamObserver<ImportUsersProgress> responseObserver) {
+                return new StreamObserver<>() {
+                    @Override
+                    public void onNext(CreateUserRequest request) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                };
+            }
+        }).build().start();
+        ManagedChannel stalledChannel = ManagedChannelBuilder.forAddress("localhost", stalled.getPort())
+                .usePlaintext().build();
+        try {
+            LoadGenerator.Options options = LoadGenerator.Options.parse("--rpc=GetUser",
+                    "--concurrency=1", "--deadline=200ms", "--preload=50");
+            StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                    () -> new LoadGenerator(options, stalledChannel).run(null));
+            assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+            assertTrue(e.getStatus().getDescription().contains("50 of 50"), e.getStatus().getDescription());
+        } finally {
+            stalledChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            stalled.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void closedLoopKeepsStreamingOperationsInFlight() throws InterruptedException {
+        LoadGenerator.Options options = LoadGenerator.Options.parse("--rpc=ChatWithUsersBatched",
+                "--concurrency=4", "--warmup=0s", "--duration=500ms", "--preload=100", "--stream-messages=20");
+        LoadGenerator.Result result = new LoadGenerator(options, channel).run(null);
+
+        assertTrue(result.responseTime.getTotalCount() > 0);
+        assertTrue(result.errors.isEmpty(), () -> "Errors: " + result.errors);
+        assertEquals(result.responseTime.getTotalCount(), result.serviceTime.getTotalCount());
+    }
+}
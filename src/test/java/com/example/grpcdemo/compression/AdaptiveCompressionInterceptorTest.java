@@ -0,0 +1,169 @@
+package com.example.grpcdemo.compression;
+
+import com.example.grpc.GetUserResponse;
+import com.example.grpc.ListUsersResponse;
+import com.example.grpc.User;
+import com.example.grpc.UserServiceGrpc;
+import io.grpc.Codec;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for per-method, per-message response compression
+ */
+class AdaptiveCompressionInterceptorTest {
+
+    private static final Metadata.Key<String> ACCEPT_ENCODING =
+            Metadata.Key.of("grpc-accept-encoding", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final AdaptiveCompressionInterceptor interceptor = new AdaptiveCompressionInterceptor(
+            List.of("snappy", "gzip"), 1024, Map.of("GetUser", -1));
+
+    @Test
+    void compressesOnlyMessagesOverTheThreshold() {
+        RecordingCall<ListUsersResponse> call = new RecordingCall<>(UserServiceGrpc.getListUsersPageMethod());
+        ServerCall<?, ListUsersResponse> intercepted = intercept(call, "gzip,snappy");
+        intercepted.sendMessage(page(1));
+        intercepted.sendMessage(page(100));
+
+        // Server preference wins over the client's listing order
+        assertEquals("snappy", call.compression);
+        assertEquals(List.of(false, true), call.messageCompression);
+    }
+
+    @Test
+    void fallsBackToAnEncodingTheClientAccepts() {
+        RecordingCall<ListUsersResponse> call = new RecordingCall<>(UserServiceGrpc.getListUsersPageMethod());
+        intercept(call, "identity, gzip").sendMessage(page(100));
+        assertEquals("gzip", call.compression);
+
+        RecordingCall<ListUsersResponse> plain = new RecordingCall<>(UserServiceGrpc.getListUsersPageMethod());
+        intercept(plain, "identity").sendMessage(page(100));
+        assertNull(plain.compression);
+        assertTrue(plain.messageCompression.isEmpty());
+    }
+
+    @Test
+    void methodThresholdCanDisableCompression() {
+        RecordingCall<GetUserResponse> call = new RecordingCall<>(UserServiceGrpc.getGetUserMethod());
+        intercept(call, "snappy,gzip").sendMessage(GetUserResponse.getDefaultInstance());
+        assertNull(call.compression);
+        assertTrue(call.messageCompression.isEmpty());
+    }
+
+    @Test
+    void parsesMethodThresholds() {
+        assertEquals(Map.of("GetUser", -1, "ListUsersPage", 256),
+                AdaptiveCompressionInterceptor.parseMethodMinBytes("GetUser=-1, ListUsersPage = 256,"));
+        assertEquals(Map.of(), AdaptiveCompressionInterceptor.parseMethodMinBytes(""));
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveCompressionInterceptor.parseMethodMinBytes("GetUser"));
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveCompressionInterceptor.parseMethodMinBytes("=5"));
+    }
+
+    @Test
+    void snappyRoundTripsAndShrinksPages() throws IOException {
+        byte[] encoded = page(100).toByteArray();
+        byte[] compressed = compress(new SnappyCodec(), encoded);
+        assertTrue(compressed.length < encoded.length / 2, compressed.length + " of " + encoded.length);
+        try (InputStream in = new SnappyCodec().decompress(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(encoded, in.readAllBytes());
+        }
+        assertTrue(CompressionCodecs.standard().encodings().containsAll(List.of("identity", "gzip", "snappy")));
+    }
+
+    private <RespT> ServerCall<?, RespT> intercept(RecordingCall<RespT> call, String acceptEncoding) {
+        Metadata headers = new Metadata();
+        headers.put(ACCEPT_ENCODING, acceptEncoding);
+        List<ServerCall<?, RespT>> started = new ArrayList<>();
+        interceptor.interceptCall(call, headers, (c, h) -> {
+            started.add(c);
+            return new ServerCall.Listener<>() {
+            };
+        });
+        return started.get(0);
+    }
+
+    private static byte[] compress(Codec codec, byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressing = codec.compress(out)) {
+            compressing.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static ListUsersResponse page(int size) {
+        ListUsersResponse.Builder page = ListUsersResponse.newBuilder();
+        for (int id = 1; id <= size; id++) {
+            page.addUsers(User.newBuilder()
+                    .setId(id)
+                    .setName("User " + id)
+                    .setEmail("user" + id + "@example.com")
+                    .setDepartment("Department " + id % 8)
+                    .setCreatedAt(1_700_000_000_000L)
+                    .setUpdatedAt(1_700_000_000_000L)
+                    .setVersion(1));
+        }
+        return page.build();
+    }
+
+    private static final class RecordingCall<RespT> extends ServerCall<Object, RespT> {
+        private final MethodDescriptor<?, RespT> method;
+        String compression;
+        final List<Boolean> messageCompression = new ArrayList<>();
+
+        RecordingCall(MethodDescriptor<?, RespT> method) {
+            this.method = method;
+        }
+
+        @Override
+        public void setCompression(String compressor) {
+            compression = compressor;
+        }
+
+        @Override
+        public void setMessageCompression(boolean enabled) {
+            messageCompression.add(enabled);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public MethodDescriptor<Object, RespT> getMethodDescriptor() {
+            return (MethodDescriptor<Object, RespT>) method;
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+}
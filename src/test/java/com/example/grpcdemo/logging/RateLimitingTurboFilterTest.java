@@ -0,0 +1,126 @@
+package com.example.grpcdemo.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.spi.FilterReply;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for per-marker sampling and rate limiting of log events
+ */
+class RateLimitingTurboFilterTest {
+
+    private final Logger logger = new LoggerContext().getLogger("test");
+
+    @Test
+    void samplesOneInN() {
+        RateLimitingTurboFilter filter = filter(4, 0);
+        int kept = 0;
+        for (int i = 0; i < 100; i++) {
+            if (decide(filter) == FilterReply.NEUTRAL) {
+                kept++;
+            }
+        }
+        assertEquals(25, kept);
+    }
+
+    @Test
+    void capsEventsPerSecond() {
+        RateLimitingTurboFilter filter = filter(1, 10);
+        int kept = 0;
+        for (int i = 0; i < 1_000; i++) {
+            if (decide(filter) == FilterReply.NEUTRAL) {
+                kept++;
+            }
+        }
+        // The loop may straddle a second boundary
+        assertTrue(kept >= 10 && kept <= 20, "kept " + kept);
+    }
+
+    @Test
+    void ignoresOtherMarkersAndDisabledLevels() {
+        RateLimitingTurboFilter filter = filter(1_000, 1);
+        decide(filter);
+        assertEquals(FilterReply.NEUTRAL, filter.decide(LogEvents.USER_WRITE, logger, Level.INFO, "x", null, null));
+        logger.setLevel(Level.WARN);
+        assertEquals(FilterReply.NEUTRAL, filter.decide(LogEvents.USER_READ, logger, Level.INFO, "x", null, null));
+    }
+
+    @Test
+    void probeTakesThePermitForTheEventItGuards() {
+        RateLimitingTurboFilter filter = filter(1, 10);
+        int kept = 0;
+        for (int i = 0; i < 1_000; i++) {
+            if (probe(filter) == FilterReply.NEUTRAL) {
+                // The guarded event is not counted a second time
+                assertEquals(FilterReply.NEUTRAL, decide(filter));
+                kept++;
+            }
+        }
+        // The loop may straddle a second boundary
+        assertTrue(kept >= 10 && kept <= 20, "kept " + kept);
+    }
+
+    @Test
+    void deniedGuardEmitsNothingAndAllocatesNothing() {
+        LoggerContext context = new LoggerContext();
+        RateLimitingTurboFilter filter = filter(1, 1);
+        context.addTurboFilter(filter);
+        Logger guarded = context.getLogger("guarded");
+        ListAppender<ILoggingEvent> events = new ListAppender<>();
+        events.setContext(context);
+        events.start();
+        guarded.addAppender(events);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long allocated = Long.MAX_VALUE;
+        int emitted = -1;
+        // Retry if a second boundary resets the cap and lets an event through mid-loop,
+        // or a deoptimization allocates; a filter that lets the guard pass allocates every attempt
+        for (int attempt = 0; attempt < 10 && (emitted != 0 || allocated >= 1_024); attempt++) {
+            logGuarded(guarded, 10_000);
+            int before = events.list.size();
+            long start = threads.getCurrentThreadAllocatedBytes();
+            logGuarded(guarded, 10_000);
+            allocated = threads.getCurrentThreadAllocatedBytes() - start;
+            emitted = events.list.size() - before;
+        }
+        assertEquals(0, emitted);
+        // Boxing each id alone would be 160 KB
+        assertTrue(allocated < 1_024, "allocated " + allocated + " bytes");
+    }
+
+    private RateLimitingTurboFilter filter(int sampleRate, int maxPerSecond) {
+        RateLimitingTurboFilter filter = new RateLimitingTurboFilter();
+        filter.setMarker("USER_READ");
+        filter.setSampleRate(sampleRate);
+        filter.setMaxPerSecond(maxPerSecond);
+        filter.start();
+        assertTrue(filter.isStarted());
+        return filter;
+    }
+
+    private FilterReply probe(RateLimitingTurboFilter filter) {
+        return filter.decide(LogEvents.USER_READ, logger, Level.INFO, null, null, null);
+    }
+
+    private static void logGuarded(Logger guarded, int calls) {
+        for (int i = 0; i < calls; i++) {
+            if (guarded.isInfoEnabled(LogEvents.USER_READ)) {
+                guarded.info(LogEvents.USER_READ, "Retrieved user: {}", 1_000 + i);
+            }
+        }
+    }
+
+    private FilterReply decide(RateLimitingTurboFilter filter) {
+        return filter.decide(LogEvents.USER_READ, logger, Level.INFO, "Retrieved user: {}", null, null);
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.grpcdemo.persistence;
+
+import com.example.grpc.User;
+import com.example.grpcdemo.store.HeapUserStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the write-ahead log and the store rebuilt from it
+ */
+class DurableUserStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoresEveryWriteAfterReopening() throws IOException {
+        for (Durability durability : Durability.values()) {
+            Path log = dir.resolve(durability.name());
+            try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), log, durability, 1)) {
+                store.put(user(1, "One"));
+                store.putAll(List.of(user(2, "Two"), user(3, "Three")));
+                store.compareAndExchange(user(2, "Two again"), 0);
+                store.remove(3);
+                assertNull(store.compareAndExchange(user(3, "Ghost"), 0));
+                assertNull(store.remove(3));
+            }
+
+            HeapUserStore restored = new HeapUserStore(16);
+            try (DurableUserStore store = DurableUserStore.open(restored, log, durability, 1)) {
+                assertEquals(2, store.size(), durability.name());
+                assertEquals("One", store.get(1).getName());
+                assertEquals("Two again", store.get(2).getName());
+                assertNull(store.get(3));
+            }
+        }
+    }
+
+    @Test
+    void truncatesTornTailAndKeepsAppending() throws IOException {
+        Path log = dir;
+        Path segment = dir.resolve("users-000001.wal");
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), log, Durability.SYNC, 0)) {
+            store.put(user(1, "One"));
+            store.put(user(2, "Two"));
+        }
+        long intact = Files.size(segment);
+        // A crash in the middle of an append leaves a partial record behind
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3}));
+        }
+
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), log, Durability.SYNC, 0)) {
+            assertEquals(2, store.size());
+            assertEquals(intact, Files.size(segment));
+            store.put(user(3, "Three"));
+        }
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), log, Durability.SYNC, 0)) {
+            assertEquals("Three", store.get(3).getName());
+        }
+    }
+
+    @Test
+    void stopsReplayAtCorruptRecord() throws IOException {
+        Path log = dir;
+        Path segment = dir.resolve("users-000001.wal");
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), log, Durability.OS_BUFFERED, 0)) {
+            store.put(user(1, "One"));
+        }
+        long firstRecordEnd = Files.size(segment);
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), log, Durability.OS_BUFFERED, 0)) {
+            store.put(user(2, "Two"));
+        }
+        // Flip a payload byte of the second record so its checksum no longer matches
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, channel.size() - 1);
+            one.put(0, (byte) (one.get(0) ^ 0x5a)).rewind();
+            channel.write(one, channel.size() - 1);
+        }
+
+        List<Integer> replayed = new ArrayList<>();
+        try (WriteAheadLog wal = WriteAheadLog.open(log, 0, Durability.OS_BUFFERED, 0, new WriteAheadLog.RecordHandler() {
+            @Override
+            public void onPut(int id, byte[] payload) {
+                replayed.add(id);
+            }
+
+            @Override
+            public void onDelete(int id) {
+                replayed.add(-id);
+            }
+
+            @Override
+            public void onReserve(int limit) {
+                replayed.add(0);
+            }
+        })) {
+            assertEquals(List.of(1), replayed);
+            assertEquals(firstRecordEnd, Files.size(segment));
+        }
+    }
+
+    @Test
+    void groupCommitAcknowledgesConcurrentWriters() throws Exception {
+        Path log = dir;
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), log, Durability.GROUP_COMMIT, 2)) {
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                int base = t * 100;
+                writers[t] = new Thread(() -> {
+                    for (int i = 1; i <= 100; i++) {
+                        store.put(user(base + i, "User " + (base + i)));
+                    }
+                });
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(400, store.size());
+        }
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), log, Durability.GROUP_COMMIT, 2)) {
+            assertEquals(400, store.size());
+        }
+    }
+
+    @Test
+    void checkpointReplacesOldSegmentsWithSnapshot() throws IOException {
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), dir, Durability.OS_BUFFERED, 0)) {
+            for (int id = 1; id <= 1_000; id++) {
+                store.put(user(id, "User " + id));
+            }
+            assertTrue(store.checkpoint());
+            assertFalse(store.checkpoint());
+            store.compareAndExchange(user(5, "Renamed"), 0);
+            store.remove(6);
+        }
+        assertEquals(List.of("snapshot-2.snap", "users-000002.wal"), fileNames());
+
+        HeapUserStore restored = new HeapUserStore(16);
+        try (DurableUserStore store = DurableUserStore.open(restored, dir, Durability.OS_BUFFERED, 0)) {
+            assertEquals(999, store.size());
+            assertEquals("Renamed", store.get(5).getName());
+            assertNull(store.get(6));
+            // Replaying the tail counts as a change worth checkpointing
+            assertTrue(store.checkpoint());
+        }
+        assertEquals(List.of("snapshot-3.snap", "users-000003.wal"), fileNames());
+    }
+
+    @Test
+    void checkpointUnderConcurrentWritesLosesNothing() throws Exception {
+        int writers = 4;
+        int perWriter = 5_000;
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), dir, Durability.OS_BUFFERED, 0)) {
+            Thread[] threads = new Thread[writers];
+            for (int t = 0; t < writers; t++) {
+                int base = t * perWriter;
+                threads[t] = new Thread(() -> {
+                    for (int i = 1; i <= perWriter; i++) {
+                        store.put(user(base + i, "v1"));
+                        if (i % 3 == 0) {
+                            store.remove(base + i);
+                        } else {
+                            store.compareAndExchange(user(base + i, "v2"), 0);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            while (isAlive(threads)) {
+                store.checkpoint();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        HeapUserStore restored = new HeapUserStore(16);
+        DurableUserStore.open(restored, dir, Durability.OS_BUFFERED, 0).close();
+        for (int id = 1; id <= writers * perWriter; id++) {
+            int i = (id - 1) % perWriter + 1;
+            if (i % 3 == 0) {
+                assertNull(restored.get(id), "id " + id);
+            } else {
+                assertEquals("v2", restored.get(id).getName(), "id " + id);
+            }
+        }
+    }
+
+    @Test
+    void rejectsCorruptSnapshot() throws IOException {
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), dir, Durability.OS_BUFFERED, 0)) {
+            store.put(user(1, "One"));
+            store.checkpoint();
+        }
+        Path snapshot = dir.resolve("snapshot-2.snap");
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[20] ^= 0x5a;
+        Files.write(snapshot, bytes);
+
+        assertThrows(IOException.class,
+                () -> DurableUserStore.open(new HeapUserStore(16), dir, Durability.OS_BUFFERED, 0));
+    }
+
+    @Test
+    void restoresIdReservationsFromLogAndSnapshot() throws IOException {
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), dir, Durability.SYNC, 0)) {
+            assertEquals(0, store.reservedIdLimit());
+            store.reserved(65);
+            store.reserved(40);
+        }
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), dir, Durability.SYNC, 0)) {
+            assertEquals(65, store.reservedIdLimit());
+            assertTrue(store.checkpoint());
+        }
+        // Only the snapshot carries the limit now
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), dir, Durability.SYNC, 0)) {
+            assertEquals(65, store.reservedIdLimit());
+        }
+    }
+
+    @Test
+    void rejectsRecordsReplayWouldDrop() throws IOException {
+        User oversized = user(2, "n".repeat(WriteAheadLog.MAX_PAYLOAD_BYTES));
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), dir, Durability.SYNC, 0)) {
+            store.put(user(1, "One"));
+            assertThrows(IllegalArgumentException.class, () -> store.put(oversized));
+            assertThrows(IllegalArgumentException.class, () -> store.putAll(List.of(user(3, "Three"), oversized)));
+            assertNull(store.get(2));
+            assertNull(store.get(3));
+            store.put(user(4, "Four"));
+        }
+        try (DurableUserStore store = DurableUserStore.open(new HeapUserStore(16), dir, Durability.SYNC, 0)) {
+            assertEquals(2, store.size());
+            assertEquals("Four", store.get(4).getName());
+        }
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static boolean isAlive(Thread[] threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static User user(int id, String name) {
+        return User.newBuilder().setId(id).setName(name).setDepartment("Engineering").build();
+    }
+}
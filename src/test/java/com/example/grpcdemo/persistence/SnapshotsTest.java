@@ -0,0 +1,62 @@
+package com.example.grpcdemo.persistence;
+
+import com.example.grpc.User;
+import com.example.grpcdemo.store.HeapUserStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for writing and loading store snapshots
+ */
+class SnapshotsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesTheFooterWhenRecordsLeaveLessRoomThanItNeeds() throws IOException {
+        for (int left = 0; left < 8; left++) {
+            HeapUserStore store = new HeapUserStore(16);
+            int records = fillBuffer(store, Snapshots.WRITE_BUFFER_BYTES - Snapshots.HEADER_BYTES - left);
+
+            Path directory = dir.resolve("left-" + left);
+            Files.createDirectories(directory);
+            assertEquals(records, Snapshots.write(directory, 1, 0, store));
+
+            HeapUserStore loaded = new HeapUserStore(16);
+            assertEquals(records, Snapshots.load(Snapshots.path(directory, 1), loaded));
+            assertEquals(store.get(records).getName(), loaded.get(records).getName());
+        }
+    }
+
+    /**
+     * Adds users whose [length][record] entries take exactly the given bytes
+     * and returns how many were added
+     */
+    private static int fillBuffer(HeapUserStore store, int bytes) {
+        int id = 0;
+        while (bytes > 2_000) {
+            User user = user(++id, 1_000);
+            store.put(user);
+            bytes -= 4 + user.getSerializedSize();
+        }
+        // Every name length here takes a two-byte varint, so some length fits exactly
+        for (int length = 0; ; length++) {
+            User user = user(id + 1, length);
+            if (4 + user.getSerializedSize() == bytes) {
+                store.put(user);
+                return id + 1;
+            }
+        }
+    }
+
+    private static User user(int id, int nameLength) {
+        return User.newBuilder().setId(id).setName("n".repeat(nameLength)).build();
+    }
+}
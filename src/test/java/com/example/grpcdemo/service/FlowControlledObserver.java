@@ -0,0 +1,127 @@
+package com.example.grpcdemo.service;
+
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe stand-in for a server call's response observer whose
+ * readiness the test controls, for handlers that answer from other threads
+ * and honour flow control
+ */
+class FlowControlledObserver<T> extends ServerCallStreamObserver<T> {
+
+    final List<T> values = new ArrayList<>();
+    volatile Throwable error;
+    volatile boolean autoRequest = true;
+    private final AtomicInteger requested = new AtomicInteger();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile boolean ready = true;
+    private volatile Runnable onReadyHandler;
+    private volatile Runnable onCancelHandler;
+
+    /**
+     * Makes the call ready or not; becoming ready runs the onReady handler, as the transport would
+     */
+    void setReady(boolean ready) {
+        this.ready = ready;
+        if (ready && onReadyHandler != null) {
+            onReadyHandler.run();
+        }
+    }
+
+    void cancel() {
+        if (onCancelHandler != null) {
+            onCancelHandler.run();
+        }
+    }
+
+    /**
+     * Messages the handler has asked the client for so far
+     */
+    int requested() {
+        return requested.get();
+    }
+
+    synchronized List<T> snapshot() {
+        return new ArrayList<>(values);
+    }
+
+    /**
+     * Whether the call has completed or failed
+     */
+    boolean closed() {
+        return closed.getCount() == 0;
+    }
+
+    /**
+     * Waits for the call to complete or fail
+     */
+    void awaitClose() throws InterruptedException {
+        if (!closed.await(10, TimeUnit.SECONDS)) {
+            throw new AssertionError("Call did not close; received " + snapshot().size() + " messages");
+        }
+    }
+
+    @Override
+    public synchronized void onNext(T value) {
+        values.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        error = t;
+        closed.countDown();
+    }
+
+    @Override
+    public void onCompleted() {
+        closed.countDown();
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+        this.onReadyHandler = onReadyHandler;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public void setOnCancelHandler(Runnable onCancelHandler) {
+        this.onCancelHandler = onCancelHandler;
+    }
+
+    @Override
+    public void setCompression(String compression) {
+    }
+
+    @Override
+    public void disableAutoInboundFlowControl() {
+    }
+
+    @Override
+    public void disableAutoRequest() {
+        autoRequest = false;
+    }
+
+    @Override
+    public void request(int count) {
+        requested.addAndGet(count);
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.grpcdemo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the opaque ListUsers page token codec
+ */
+class PageTokensTest {
+
+    @Test
+    void roundTripsLastId() {
+        String token = PageTokens.encode(123_456, "Engineering");
+        assertEquals(123_456, PageTokens.decode(token, "Engineering"));
+        assertEquals(42, PageTokens.decode(PageTokens.encode(42, ""), ""));
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        assertThrows(IllegalArgumentException.class, () -> PageTokens.decode("not base64!", ""));
+        assertThrows(IllegalArgumentException.class, () -> PageTokens.decode("AAAA", ""));
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] bytes = Base64.getUrlDecoder().decode(PageTokens.encode(7, ""));
+        bytes[0] = 9;
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        assertThrows(IllegalArgumentException.class, () -> PageTokens.decode(token, ""));
+    }
+
+    @Test
+    void rejectsTokenFromAnotherFilter() {
+        String token = PageTokens.encode(7, "Sales");
+        assertThrows(IllegalArgumentException.class, () -> PageTokens.decode(token, "Engineering"));
+        assertThrows(IllegalArgumentException.class, () -> PageTokens.decode(token, ""));
+    }
+}
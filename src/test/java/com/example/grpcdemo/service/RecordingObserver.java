@@ -0,0 +1,42 @@
+package com.example.grpcdemo.service;
+
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StreamObserver that records everything a handler sends, for calling
+ * UserServiceImpl directly in tests
+ */
+class RecordingObserver<T> implements StreamObserver<T> {
+
+    final List<T> values = new ArrayList<>();
+    Throwable error;
+    boolean completed;
+
+    @Override
+    public void onNext(T value) {
+        values.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        error = t;
+    }
+
+    @Override
+    public void onCompleted() {
+        completed = true;
+    }
+
+    T single() {
+        if (error != null) {
+            throw new AssertionError("Call failed", error);
+        }
+        if (values.size() != 1) {
+            throw new AssertionError("Expected one response but got " + values.size());
+        }
+        return values.get(0);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.grpcdemo.service;
+
+import com.example.grpc.User;
+import com.example.grpc.UserStatus;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.util.FieldMaskUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for compiled User read masks
+ */
+class UserProjectionTest {
+
+    private static final User USER = User.newBuilder()
+            .setId(7)
+            .setName("Ada")
+            .setEmail("ada@example.com")
+            .setAge(36)
+            .setDepartment("Engineering")
+            .setStatus(UserStatus.SUSPENDED)
+            .setCreatedAt(1_000)
+            .setUpdatedAt(2_000)
+            .setVersion(3)
+            .build();
+
+    @Test
+    void everyFieldProjectsLikeFieldMaskUtil() {
+        // Fails when a User field is added without teaching project() about it: compile()
+        // rejects the field, or project() leaves out a value every field has here
+        User full = everyFieldSet();
+        for (FieldDescriptor field : User.getDescriptor().getFields()) {
+            FieldMask mask = FieldMask.newBuilder().addPaths(field.getName()).build();
+            User.Builder expected = User.newBuilder();
+            FieldMaskUtil.merge(mask, full, expected);
+            assertTrue(field.isRepeated() ? expected.getRepeatedFieldCount(field) > 0 : expected.hasField(field),
+                    field.getName());
+            assertEquals(expected.build(), UserProjection.of(mask).project(full), field.getName());
+        }
+    }
+
+    @Test
+    void combinedMaskKeepsOnlyListedFields() {
+        FieldMask mask = FieldMask.newBuilder().addPaths("id").addPaths("email").build();
+        assertEquals(User.newBuilder().setId(7).setEmail("ada@example.com").build(),
+                UserProjection.of(mask).project(USER));
+    }
+
+    @Test
+    void emptyMaskReturnsUserUnchanged() {
+        UserProjection projection = UserProjection.of(FieldMask.getDefaultInstance());
+        assertTrue(projection.isAll());
+        assertSame(USER, projection.project(USER));
+    }
+
+    @Test
+    void compiledMasksAreCached() {
+        FieldMask mask = FieldMask.newBuilder().addPaths("name").build();
+        assertSame(UserProjection.of(mask), UserProjection.of(mask.toBuilder().build()));
+    }
+
+    @Test
+    void rejectsUnknownPaths() {
+        assertThrows(IllegalArgumentException.class,
+                () -> UserProjection.of(FieldMask.newBuilder().addPaths("name").addPaths("salary").build()));
+        assertThrows(IllegalArgumentException.class,
+                () -> UserProjection.of(FieldMask.newBuilder().addPaths("user.name").build()));
+    }
+
+    /**
+     * A user with a non-default value in every field, built from the descriptor
+     * so that fields added to User later are covered too
+     */
+    private static User everyFieldSet() {
+        User.Builder user = User.newBuilder();
+        for (FieldDescriptor field : User.getDescriptor().getFields()) {
+            Object value;
+            switch (field.getJavaType()) {
+                case INT:
+                    value = field.getNumber();
+                    break;
+                case LONG:
+                    value = (long) field.getNumber();
+                    break;
+                case FLOAT:
+                    value = (float) field.getNumber();
+                    break;
+                case DOUBLE:
+                    value = (double) field.getNumber();
+                    break;
+                case BOOLEAN:
+                    value = true;
+                    break;
+                case STRING:
+                    value = field.getName();
+                    break;
+                case BYTE_STRING:
+                    value = ByteString.copyFromUtf8(field.getName());
+                    break;
+                case ENUM:
+                    List<EnumValueDescriptor> values = field.getEnumType().getValues();
+                    value = values.get(values.size() - 1);
+                    break;
+                default:
+                    throw new AssertionError("No test value for User field " + field.getName());
+            }
+            if (field.isRepeated()) {
+                user.addRepeatedField(field, value);
+            } else {
+                user.setField(field, value);
+            }
+        }
+        return user.build();
+    }
+}
@@ -0,0 +1,578 @@
+package com.example.grpcdemo.service;
+
+import com.example.grpc.*;
+import com.example.grpcdemo.store.HeapDepartmentIndex;
+import com.example.grpcdemo.store.HeapEmailIndex;
+import com.example.grpcdemo.store.HeapUserStore;
+import com.example.grpcdemo.store.IdAllocator;
+import com.example.grpcdemo.store.UserStore;
+import com.google.protobuf.FieldMask;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for UserServiceImpl called directly, without a gRPC server
+ */
+class UserServiceImplTest {
+
+    private UserStore store;
+    private UserServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        store = new HeapUserStore(64);
+        service = new UserServiceImpl(store, new HeapEmailIndex(store), new HeapDepartmentIndex(),
+                new GetUserResponseCache(1_000),
+                new IdAllocator(1, 64, IdAllocator.ReservationLog.NONE), 3, 5, 100, 8);
+    }
+
+    @Test
+    void departmentPagesOnlyReturnMatchingUsers() {
+        int first = create("Ann", "Sales");
+        create("Bob", "Engineering");
+        int third = create("Cid", "Sales");
+
+        assertEquals(List.of(first, third), ids(listPage("Sales", 10, "")));
+
+        // Move a user behind the index's back; the stale entry must be filtered out
+        store.put(store.get(first).toBuilder().setDepartment("Legal").build());
+        assertEquals(List.of(third), ids(listPage("Sales", 10, "")));
+    }
+
+    @Test
+    void updateMovesUserBetweenDepartmentPages() {
+        int id = create("Dee", "Sales");
+        update(id, "Engineering");
+
+        assertTrue(ids(listPage("Sales", 10, "")).isEmpty());
+        assertTrue(ids(listPage("Engineering", 10, "")).contains(id));
+    }
+
+    @Test
+    void tokenPagesStayStableWhenUsersAreInsertedBetweenPages() {
+        for (int i = 0; i < 5; i++) {
+            create("User" + i, "");
+        }
+        // Two sample users plus five created ones
+        ListUsersResponse first = listPage("", 3, "");
+        assertEquals(List.of(1, 2, 3), ids(first));
+
+        create("Late", "");
+        ListUsersResponse second = listPage("", 3, first.getNextPageToken());
+        assertEquals(List.of(4, 5, 6), ids(second));
+
+        ListUsersResponse third = listPage("", 3, second.getNextPageToken());
+        assertEquals(List.of(7, 8), ids(third));
+        assertEquals("", third.getNextPageToken());
+    }
+
+    @Test
+    void exactlyFullLastPageCarriesNoToken() {
+        for (int i = 0; i < 4; i++) {
+            create("User" + i, "");
+        }
+        // Two sample users plus four created ones
+        ListUsersResponse first = listPage("", 3, "");
+        assertFalse(first.getNextPageToken().isEmpty());
+
+        ListUsersResponse second = listPage("", 3, first.getNextPageToken());
+        assertEquals(List.of(4, 5, 6), ids(second));
+        assertEquals("", second.getNextPageToken());
+    }
+
+    @Test
+    void pageSizeAboveTheLimitIsRejectedAsInvalidArgument() {
+        RecordingObserver<ListUsersResponse> observer = new RecordingObserver<>();
+        service.listUsersPage(ListUsersRequest.newBuilder().setPageSize(Integer.MAX_VALUE).build(), observer);
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(observer.error).getCode());
+
+        assertEquals(2, listPage("", 100, "").getUsersCount());
+    }
+
+    @Test
+    void invalidPageTokensAreRejectedAsInvalidArgument() {
+        create("Eve", "Sales");
+        create("Fay", "Sales");
+        String salesToken = listPage("Sales", 1, "").getNextPageToken();
+
+        for (String token : List.of("garbage!", "AAAA", salesToken)) {
+            RecordingObserver<ListUsersResponse> observer = new RecordingObserver<>();
+            service.listUsersPage(ListUsersRequest.newBuilder()
+                    .setDepartment("Engineering")
+                    .setPageSize(1)
+                    .setPageToken(token)
+                    .build(), observer);
+            assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(observer.error).getCode());
+        }
+    }
+
+    @Test
+    void updateDoesNotResurrectDeletedUser() {
+        int id = create("Gus", "Sales");
+        RecordingObserver<DeleteUserResponse> deleted = new RecordingObserver<>();
+        service.deleteUser(DeleteUserRequest.newBuilder().setId(id).build(), deleted);
+        deleted.single();
+
+        RecordingObserver<UpdateUserResponse> observer = new RecordingObserver<>();
+        service.updateUser(UpdateUserRequest.newBuilder().setId(id).setDepartment("Legal").build(), observer);
+        assertNotNull(observer.error);
+        assertNull(store.get(id));
+        assertFalse(ids(listPage("", 100, "")).contains(id));
+        assertFalse(ids(listPage("Legal", 100, "")).contains(id));
+    }
+
+    @Test
+    void conditionalUpdateFailsFastOnStaleVersion() {
+        int id = create("Jo", "Sales");
+        assertEquals(1, store.get(id).getVersion());
+        update(id, "Legal");
+        assertEquals(2, store.get(id).getVersion());
+
+        RecordingObserver<UpdateUserResponse> stale = new RecordingObserver<>();
+        service.updateUser(UpdateUserRequest.newBuilder().setId(id).setDepartment("Ops").setExpectedVersion(1).build(), stale);
+        assertEquals(Status.Code.ABORTED, Status.fromThrowable(stale.error).getCode());
+        assertEquals("Legal", store.get(id).getDepartment());
+
+        RecordingObserver<UpdateUserResponse> current = new RecordingObserver<>();
+        service.updateUser(UpdateUserRequest.newBuilder().setId(id).setDepartment("Ops").setExpectedVersion(2).build(), current);
+        assertEquals(3, current.single().getUser().getVersion());
+    }
+
+    @Test
+    void concurrentConditionalIncrementsLoseNoWrites() throws InterruptedException {
+        int id = create("Counter", "Ops");
+        int threads = 4;
+        int increments = 500;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int done = 0; done < increments; ) {
+                    User user = store.get(id);
+                    RecordingObserver<UpdateUserResponse> observer = new RecordingObserver<>();
+                    service.updateUser(UpdateUserRequest.newBuilder()
+                            .setId(id)
+                            .setName(user.getName())
+                            .setDepartment(user.getDepartment())
+                            .setAge(user.getAge() + 1)
+                            .setExpectedVersion(user.getVersion())
+                            .build(), observer);
+                    if (observer.error == null) {
+                        done++;
+                    } else {
+                        assertEquals(Status.Code.ABORTED, Status.fromThrowable(observer.error).getCode());
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(30 + threads * increments, store.get(id).getAge());
+        assertEquals(1 + threads * increments, store.get(id).getVersion());
+    }
+
+    @Test
+    void emailsAreUniqueAndFoundCaseInsensitively() {
+        int id = create("Kim", "Sales");
+        RecordingObserver<CreateUserResponse> duplicate = new RecordingObserver<>();
+        service.createUser(CreateUserRequest.newBuilder().setName("Other").setEmail(" KIM@example.com").build(), duplicate);
+        assertEquals(Status.Code.ALREADY_EXISTS, Status.fromThrowable(duplicate.error).getCode());
+        assertEquals(id, byEmail("Kim@Example.com").getId());
+
+        // Taking an address another user holds fails and leaves both users untouched
+        int other = create("Lou", "Sales");
+        // The rejected create did not use up an ID
+        assertEquals(id + 1, other);
+        RecordingObserver<UpdateUserResponse> taken = new RecordingObserver<>();
+        service.updateUser(UpdateUserRequest.newBuilder().setId(other).setName("Lou").setEmail("kim@example.com").build(), taken);
+        assertEquals(Status.Code.ALREADY_EXISTS, Status.fromThrowable(taken.error).getCode());
+        assertEquals("lou@example.com", store.get(other).getEmail());
+
+        // Changing an address frees the old one
+        RecordingObserver<UpdateUserResponse> moved = new RecordingObserver<>();
+        service.updateUser(UpdateUserRequest.newBuilder().setId(id).setName("Kim").setEmail("kim@new.example.com").build(), moved);
+        moved.single();
+        assertEquals(id, byEmail("kim@new.example.com").getId());
+        RecordingObserver<GetUserResponse> old = new RecordingObserver<>();
+        service.getUserByEmail(GetUserByEmailRequest.newBuilder().setEmail("kim@example.com").build(), old);
+        assertEquals(Status.Code.NOT_FOUND, Status.fromThrowable(old.error).getCode());
+        create("Kim", "Ops");
+
+        // Deleting frees the address too
+        service.deleteUser(DeleteUserRequest.newBuilder().setId(other).build(), new RecordingObserver<>());
+        create("Lou", "Ops");
+    }
+
+    @Test
+    void concurrentUpdatesToOneAddressKeepItIndexed() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            int id = create("Rae" + round, "Sales");
+            String address = "rae" + round + "@new.example.com";
+            // One unconditional update always lands; the stale expected versions always fail and unpin
+            Long[] expectedVersions = {null, 1L, 99L, 99L};
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] updaters = new Thread[expectedVersions.length];
+            for (int t = 0; t < updaters.length; t++) {
+                UpdateUserRequest.Builder request = UpdateUserRequest.newBuilder()
+                        .setId(id).setName("Rae").setEmail(address).setDepartment("Sales");
+                if (expectedVersions[t] != null) {
+                    request.setExpectedVersion(expectedVersions[t]);
+                }
+                updaters[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    service.updateUser(request.build(), new RecordingObserver<>());
+                });
+                updaters[t].start();
+            }
+            start.countDown();
+            for (Thread updater : updaters) {
+                updater.join();
+            }
+
+            assertEquals(address, store.get(id).getEmail());
+            assertEquals(id, byEmail(address).getId(), "round " + round);
+            RecordingObserver<CreateUserResponse> duplicate = new RecordingObserver<>();
+            service.createUser(CreateUserRequest.newBuilder().setName("Other").setEmail(address).build(), duplicate);
+            assertEquals(Status.Code.ALREADY_EXISTS, Status.fromThrowable(duplicate.error).getCode());
+        }
+    }
+
+    @Test
+    void importChunkWithDuplicateEmailFailsAsWhole() {
+        create("Max", "Ops");
+        RecordingObserver<ImportUsersProgress> observer = new RecordingObserver<>();
+        StreamObserver<CreateUserRequest> requests = service.importUsers(observer);
+        requests.onNext(CreateUserRequest.newBuilder().setName("New").setEmail("new@example.com").build());
+        requests.onNext(CreateUserRequest.newBuilder().setName("Dup").setEmail("max@example.com").build());
+        requests.onNext(CreateUserRequest.newBuilder().setName("Late").setEmail("late@example.com").build());
+
+        assertEquals(Status.Code.ALREADY_EXISTS, Status.fromThrowable(observer.error).getCode());
+        assertTrue(observer.values.isEmpty());
+        // The failed chunk's other claims were released
+        create("New", "Ops");
+    }
+
+    @Test
+    void batchGetReturnsFoundUsersAndMissingIdsInRequestOrder() throws Exception {
+        int first = create("Nia", "Sales");
+        int second = create("Oli", "Ops");
+        BatchGetUsersRequest request = BatchGetUsersRequest.newBuilder()
+                .addIds(second).addIds(9_999).addIds(first).addIds(-4).build();
+
+        RecordingObserver<BatchGetUsersResponse> observer = new RecordingObserver<>();
+        service.batchGetUsers(request, observer);
+        BatchGetUsersResponse response = observer.single();
+        assertEquals(List.of(second, first), response.getUsersList().stream().map(User::getId).collect(Collectors.toList()));
+        assertEquals(List.of(9_999, -4), response.getMissingIdsList());
+
+        // The pre-encoded path must decode to the same message, cached or not
+        for (int pass = 0; pass < 2; pass++) {
+            RecordingObserver<byte[]> encoded = new RecordingObserver<>();
+            service.batchGetUsersEncoded(request, encoded);
+            assertEquals(response, BatchGetUsersResponse.parseFrom(encoded.single()));
+        }
+        RecordingObserver<byte[]> empty = new RecordingObserver<>();
+        service.batchGetUsersEncoded(BatchGetUsersRequest.getDefaultInstance(), empty);
+        assertEquals(0, empty.single().length);
+    }
+
+    @Test
+    void batchGetRejectsOversizedRequest() {
+        RecordingObserver<BatchGetUsersResponse> observer = new RecordingObserver<>();
+        service.batchGetUsers(BatchGetUsersRequest.newBuilder().addAllIds(List.of(1, 2, 3, 4, 5, 6)).build(), observer);
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(observer.error).getCode());
+    }
+
+    @Test
+    void readMaskTrimsEveryReadPath() throws Exception {
+        int id = create("Quin", "Sales");
+        FieldMask mask = FieldMask.newBuilder().addPaths("id").addPaths("name").build();
+        User expected = User.newBuilder().setId(id).setName("Quin").build();
+
+        RecordingObserver<GetUserResponse> plain = new RecordingObserver<>();
+        service.getUser(GetUserRequest.newBuilder().setId(id).setReadMask(mask).build(), plain);
+        assertEquals(expected, plain.single().getUser());
+
+        // The encoded path must not serve the full cached bytes for a masked read
+        assertEquals("Quin", encodedGet(id).getUser().getName());
+        RecordingObserver<byte[]> encoded = new RecordingObserver<>();
+        service.getUserEncoded(GetUserRequest.newBuilder().setId(id).setReadMask(mask).build(), encoded);
+        assertEquals(expected, GetUserResponse.parseFrom(encoded.single()).getUser());
+        assertTrue(encoded.single().length < encodedGetBytes(id).length);
+
+        RecordingObserver<byte[]> batch = new RecordingObserver<>();
+        service.batchGetUsersEncoded(BatchGetUsersRequest.newBuilder().addIds(id).setReadMask(mask).build(), batch);
+        assertEquals(List.of(expected), BatchGetUsersResponse.parseFrom(batch.single()).getUsersList());
+
+        RecordingObserver<User> stream = new RecordingObserver<>();
+        service.listUsers(ListUsersRequest.newBuilder().setDepartment("Sales").setPageSize(10).setReadMask(mask).build(), stream);
+        assertEquals(List.of(expected), stream.values);
+
+        RecordingObserver<GetUserResponse> rejected = new RecordingObserver<>();
+        service.getUser(GetUserRequest.newBuilder().setId(id)
+                .setReadMask(FieldMask.newBuilder().addPaths("salary")).build(), rejected);
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(rejected.error).getCode());
+    }
+
+    @Test
+    void chatAnswersEveryRequestInOrderThenCompletes() throws Exception {
+        int first = create("Rae", "Sales");
+        int second = create("Sol", "Ops");
+
+        FlowControlledObserver<GetUserResponse> single = new FlowControlledObserver<>();
+        StreamObserver<GetUserRequest> requests = service.chatWithUsers(single);
+        for (int id : new int[]{second, 9_999, first}) {
+            requests.onNext(GetUserRequest.newBuilder().setId(id).build());
+        }
+        requests.onCompleted();
+        single.awaitClose();
+        assertNull(single.error);
+        assertEquals(List.of(second, first), single.snapshot().stream().map(r -> r.getUser().getId()).collect(Collectors.toList()));
+
+        FlowControlledObserver<byte[]> batched = new FlowControlledObserver<>();
+        requests = service.chatWithUsersBatchedEncoded(batched);
+        for (int id : new int[]{second, 9_999, first}) {
+            requests.onNext(GetUserRequest.newBuilder().setId(id).build());
+        }
+        requests.onCompleted();
+        batched.awaitClose();
+        List<Integer> found = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        for (byte[] encoded : batched.snapshot()) {
+            BatchGetUsersResponse response = BatchGetUsersResponse.parseFrom(encoded);
+            response.getUsersList().forEach(user -> found.add(user.getId()));
+            missing.addAll(response.getMissingIdsList());
+        }
+        assertEquals(List.of(second, first), found);
+        assertEquals(List.of(9_999), missing);
+    }
+
+    @Test
+    void chatHoldsRequestsWhileClientIsNotReadingAndCoalescesThem() throws Exception {
+        int id = create("Tam", "Sales");
+        FlowControlledObserver<BatchGetUsersResponse> observer = new FlowControlledObserver<>();
+        observer.setReady(false);
+        StreamObserver<GetUserRequest> requests = service.chatWithUsersBatched(observer);
+        for (int i = 0; i < 12; i++) {
+            requests.onNext(GetUserRequest.newBuilder().setId(id).build());
+        }
+        requests.onCompleted();
+        Thread.sleep(50);
+        assertTrue(observer.snapshot().isEmpty());
+
+        observer.setReady(true);
+        observer.awaitClose();
+        // Everything queued while blocked goes out in batches of at most grpc.batch-get.max-ids (5)
+        assertEquals(List.of(5, 5, 2), observer.snapshot().stream()
+                .map(BatchGetUsersResponse::getUsersCount).collect(Collectors.toList()));
+    }
+
+    @Test
+    void chatGrantsInboundWindowOnlyAsRequestsAreAnswered() throws Exception {
+        int id = create("Uma", "Sales");
+        FlowControlledObserver<BatchGetUsersResponse> observer = new FlowControlledObserver<>();
+        observer.setReady(false);
+        StreamObserver<GetUserRequest> requests = service.chatWithUsersBatched(observer);
+        assertFalse(observer.autoRequest);
+        assertEquals(8, observer.requested());
+
+        for (int i = 0; i < 8; i++) {
+            requests.onNext(GetUserRequest.newBuilder().setId(id).build());
+        }
+        Thread.sleep(50);
+        // Nothing answered while the client is not reading, so no more requests are invited
+        assertEquals(8, observer.requested());
+
+        requests.onCompleted();
+        observer.setReady(true);
+        observer.awaitClose();
+        assertEquals(16, observer.requested());
+    }
+
+    @Test
+    void importGrantsInboundWindowPerCommittedChunk() {
+        FlowControlledObserver<ImportUsersProgress> observer = new FlowControlledObserver<>();
+        StreamObserver<CreateUserRequest> requests = service.importUsers(observer);
+        assertFalse(observer.autoRequest);
+        assertEquals(8, observer.requested());
+
+        for (int i = 0; i < 7; i++) {
+            requests.onNext(CreateUserRequest.newBuilder().setName("Flow" + i).setDepartment("Ops").build());
+        }
+        // Two chunks of 3 committed; the seventh request is buffered and still counts against the window
+        assertEquals(14, observer.requested());
+    }
+
+    @Test
+    void listUsersStreamsPageAndCompletes() {
+        create("Hal", "Engineering");
+        RecordingObserver<User> observer = new RecordingObserver<>();
+        service.listUsers(ListUsersRequest.newBuilder()
+                .setDepartment("Engineering")
+                .setPageSize(10)
+                .build(), observer);
+
+        assertTrue(observer.completed);
+        assertEquals(2, observer.values.size());
+        assertTrue(observer.values.stream().allMatch(user -> user.getDepartment().equals("Engineering")));
+    }
+
+    @Test
+    void listUsersStopsWhileNotReadyAndResumesFromOnReady() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            create("Flow" + i, "Ops");
+        }
+        // The client's window fills after two users
+        FlowControlledObserver<User> observer = new FlowControlledObserver<>() {
+            @Override
+            public synchronized void onNext(User value) {
+                super.onNext(value);
+                if (values.size() == 2) {
+                    setReady(false);
+                }
+            }
+        };
+        service.listUsers(ListUsersRequest.newBuilder().setDepartment("Ops").setPageSize(10).build(), observer);
+        Thread.sleep(50);
+        assertEquals(2, observer.snapshot().size());
+        assertFalse(observer.closed());
+
+        observer.setReady(true);
+        observer.awaitClose();
+        assertNull(observer.error);
+        assertEquals(4, observer.snapshot().size());
+    }
+
+    @Test
+    void listUsersWaitsForOnReadyBeforeSendingAnything() throws Exception {
+        FlowControlledObserver<User> observer = new FlowControlledObserver<>();
+        observer.setReady(false);
+        service.listUsers(ListUsersRequest.newBuilder().setPageSize(10).build(), observer);
+        assertTrue(observer.snapshot().isEmpty());
+
+        observer.setReady(true);
+        observer.awaitClose();
+        // The two sample users
+        assertEquals(2, observer.snapshot().size());
+    }
+
+    @Test
+    void listUsersPacesSendsAtMaxUsersPerSecond() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            create("Paced" + i, "");
+        }
+        FlowControlledObserver<User> observer = new FlowControlledObserver<>();
+        long start = System.nanoTime();
+        service.listUsers(ListUsersRequest.newBuilder().setPageSize(5).setMaxUsersPerSecond(20).build(), observer);
+        // The handler returns after the first send; the rest are sent from the pacer's timer
+        assertTrue(observer.snapshot().size() < 5);
+
+        observer.awaitClose();
+        long elapsed = System.nanoTime() - start;
+        assertEquals(5, observer.snapshot().size());
+        // Five users at 20 per second leave four 50 ms gaps
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(190), () -> "Took " + elapsed / 1_000_000 + " ms");
+    }
+
+    @Test
+    void importUsersCommitsInChunksAndAcksIdRanges() {
+        RecordingObserver<ImportUsersProgress> observer = new RecordingObserver<>();
+        StreamObserver<CreateUserRequest> requests = service.importUsers(observer);
+        for (int i = 0; i < 7; i++) {
+            requests.onNext(CreateUserRequest.newBuilder().setName("Bulk" + i).setDepartment("Ops").build());
+        }
+        assertEquals(2, observer.values.size());
+        requests.onCompleted();
+
+        assertTrue(observer.completed);
+        assertEquals(List.of(3, 3, 1), observer.values.stream().map(ImportUsersProgress::getChunkCount).collect(Collectors.toList()));
+        ImportUsersProgress last = observer.values.get(2);
+        assertEquals(7, last.getTotalCount());
+        assertEquals(last.getFirstId(), last.getLastId());
+        assertEquals(observer.values.get(0).getFirstId() + 6, last.getLastId());
+        assertEquals(7, ids(listPage("Ops", 100, "")).size());
+    }
+
+    @Test
+    void encodedGetUserIsInvalidatedByUpdateAndDelete() throws Exception {
+        int id = create("Ivy", "Sales");
+        assertEquals("Sales", encodedGet(id).getUser().getDepartment());
+
+        update(id, "Legal");
+        assertEquals("Legal", encodedGet(id).getUser().getDepartment());
+
+        service.deleteUser(DeleteUserRequest.newBuilder().setId(id).build(), new RecordingObserver<>());
+        RecordingObserver<byte[]> observer = new RecordingObserver<>();
+        service.getUserEncoded(GetUserRequest.newBuilder().setId(id).build(), observer);
+        assertNotNull(observer.error);
+    }
+
+    private GetUserResponse encodedGet(int id) throws Exception {
+        return GetUserResponse.parseFrom(encodedGetBytes(id));
+    }
+
+    private byte[] encodedGetBytes(int id) {
+        RecordingObserver<byte[]> observer = new RecordingObserver<>();
+        service.getUserEncoded(GetUserRequest.newBuilder().setId(id).build(), observer);
+        return observer.single();
+    }
+
+    private User byEmail(String email) {
+        RecordingObserver<GetUserResponse> observer = new RecordingObserver<>();
+        service.getUserByEmail(GetUserByEmailRequest.newBuilder().setEmail(email).build(), observer);
+        return observer.single().getUser();
+    }
+
+    private int create(String name, String department) {
+        RecordingObserver<CreateUserResponse> observer = new RecordingObserver<>();
+        service.createUser(CreateUserRequest.newBuilder()
+                .setName(name)
+                .setEmail(name.toLowerCase() + "@example.com")
+                .setAge(30)
+                .setDepartment(department)
+                .build(), observer);
+        return observer.single().getUser().getId();
+    }
+
+    private void update(int id, String department) {
+        User user = store.get(id);
+        RecordingObserver<UpdateUserResponse> observer = new RecordingObserver<>();
+        service.updateUser(UpdateUserRequest.newBuilder()
+                .setId(id)
+                .setName(user.getName())
+                .setEmail(user.getEmail())
+                .setAge(user.getAge())
+                .setDepartment(department)
+                .build(), observer);
+        observer.single();
+    }
+
+    private ListUsersResponse listPage(String department, int pageSize, String pageToken) {
+        RecordingObserver<ListUsersResponse> observer = new RecordingObserver<>();
+        service.listUsersPage(ListUsersRequest.newBuilder()
+                .setDepartment(department)
+                .setPageSize(pageSize)
+                .setPageToken(pageToken)
+                .build(), observer);
+        return observer.single();
+    }
+
+    private static List<Integer> ids(ListUsersResponse response) {
+        return response.getUsersList().stream().map(User::getId).collect(Collectors.toList());
+    }
+}
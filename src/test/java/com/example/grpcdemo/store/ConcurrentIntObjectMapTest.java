@@ -0,0 +1,184 @@
+package com.example.grpcdemo.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the primitive int-keyed map behind HeapUserStore
+ */
+class ConcurrentIntObjectMapTest {
+
+    @Test
+    void putGetRemoveAcrossRehash() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>(4);
+        for (int i = 1; i <= 10_000; i++) {
+            assertNull(map.put(i, "v" + i));
+        }
+        assertEquals(10_000, map.size());
+        assertEquals("v1234", map.get(1234));
+        assertEquals("v1234", map.put(1234, "updated"));
+        assertEquals("updated", map.get(1234));
+
+        for (int i = 1; i <= 10_000; i += 2) {
+            assertNotNull(map.remove(i));
+        }
+        assertEquals(5_000, map.size());
+        assertNull(map.get(1));
+        assertNull(map.remove(1));
+        assertEquals("v2", map.get(2));
+        assertNull(map.get(-5));
+        assertNull(map.get(0));
+
+        // Re-inserting a removed key reuses its slot
+        assertNull(map.put(1, "again"));
+        assertEquals("again", map.get(1));
+
+        AtomicInteger visited = new AtomicInteger();
+        map.forEach((key, value) -> visited.incrementAndGet());
+        assertEquals(5_001, visited.get());
+    }
+
+    @Test
+    void rejectsReservedKey() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>();
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, "zero"));
+    }
+
+    @Test
+    void reservedKeyNeverMatchesEmptySlot() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>();
+        for (int i = 1; i <= 1_000; i++) {
+            map.put(i, "v" + i);
+        }
+        assertNull(map.get(0));
+        assertNull(map.remove(0));
+    }
+
+    @Test
+    void concurrentWritersAndReaders() throws InterruptedException {
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>(16);
+        int threads = 8;
+        int perThread = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger misses = new AtomicInteger();
+
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            executor.execute(() -> {
+                for (int i = 1; i <= perThread; i++) {
+                    map.put(base + i, base + i);
+                }
+                done.countDown();
+            });
+            executor.execute(() -> {
+                for (int i = 1; i <= perThread; i++) {
+                    Integer value = map.get(base + i);
+                    if (value != null && value != base + i) {
+                        misses.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(0, misses.get());
+        assertEquals(threads * perThread, map.size());
+        for (int i = 1; i <= threads * perThread; i++) {
+            assertEquals(i, map.get(i));
+        }
+    }
+
+    @Test
+    void compareAndExchangeSurvivesConcurrentRehash() throws InterruptedException {
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>(16);
+        int counters = 64;
+        for (int key = 1; key <= counters; key++) {
+            map.put(key, 0);
+        }
+        int threads = 4;
+        int increments = 5_000;
+        Thread[] workers = new Thread[threads + 1];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < increments; i++) {
+                    int key = i % counters + 1;
+                    for (;;) {
+                        Integer current = map.get(key);
+                        if (map.compareAndExchange(key, current, current + 1) == current) {
+                            break;
+                        }
+                    }
+                }
+            });
+        }
+        // Grows every segment several times while the exchanges run
+        workers[threads] = new Thread(() -> {
+            for (int key = counters + 1; key <= 200_000; key++) {
+                map.put(key, -1);
+            }
+        });
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        int total = 0;
+        for (int key = 1; key <= counters; key++) {
+            total += map.get(key);
+        }
+        assertEquals(threads * increments, total);
+        assertNull(map.compareAndExchange(200_001, 0, 1));
+        map.remove(1);
+        assertNull(map.compareAndExchange(1, 0, 1));
+        assertEquals(200_000 - 1, map.size());
+    }
+
+    @Test
+    void readersSeeExistingKeysWhileSegmentsRehash() throws InterruptedException {
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>(16);
+        int existing = 1_000;
+        for (int key = 1; key <= existing; key++) {
+            map.put(key, key);
+        }
+        AtomicInteger misses = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            for (int key = existing + 1; key <= 200_000; key++) {
+                map.put(key, key);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            int[] keys = new int[existing];
+            Integer[] found = new Integer[existing];
+            for (int i = 0; i < existing; i++) {
+                keys[i] = i + 1;
+            }
+            while (writer.isAlive()) {
+                map.getAll(keys, found);
+                for (int i = 0; i < existing; i++) {
+                    Integer expected = keys[i];
+                    if (!expected.equals(found[i]) || !expected.equals(map.get(keys[i]))) {
+                        misses.incrementAndGet();
+                    }
+                }
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+
+        assertEquals(0, misses.get());
+    }
+}
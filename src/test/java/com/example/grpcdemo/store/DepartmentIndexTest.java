@@ -0,0 +1,90 @@
+package com.example.grpcdemo.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the department secondary index
+ */
+class DepartmentIndexTest {
+
+    private static final List<Supplier<DepartmentIndex>> INDEXES =
+            List.of(HeapDepartmentIndex::new, OffHeapDepartmentIndex::new);
+
+    @Test
+    void addMoveAndRemoveKeepIdsSortedPerDepartment() {
+        for (Supplier<DepartmentIndex> factory : INDEXES) {
+            DepartmentIndex index = factory.get();
+            String name = index.getClass().getSimpleName();
+            index.add("Engineering", 7);
+            index.add("Engineering", 3);
+            index.add("Sales", 5);
+
+            assertEquals(3, index.nextAfter("Engineering", 0), name);
+            assertEquals(7, index.nextAfter("Engineering", 3), name);
+            assertEquals(-1, index.nextAfter("Engineering", 7), name);
+
+            index.move(3, "Engineering", "Sales");
+            assertEquals(7, index.nextAfter("Engineering", 0), name);
+            assertEquals(3, index.nextAfter("Sales", 0), name);
+            assertEquals(5, index.nextAfter("Sales", 3), name);
+
+            index.remove("Sales", 5);
+            assertEquals(-1, index.nextAfter("Sales", 3), name);
+            assertEquals(-1, index.nextAfter("Marketing", 0), name);
+        }
+    }
+
+    @Test
+    void dropsEmptyDepartmentsAndIgnoresBlankNames() {
+        HeapDepartmentIndex index = new HeapDepartmentIndex();
+        index.add("", 1);
+        assertEquals(0, index.departmentCount());
+
+        index.add("HR", 2);
+        index.move(2, "HR", "Legal");
+        assertEquals(1, index.departmentCount());
+
+        index.remove("Legal", 2);
+        index.remove("Legal", 2);
+        assertEquals(0, index.departmentCount());
+    }
+
+    @Test
+    void offHeapIndexSeeksAcrossWordsAndBlocksAndFreesEmptyOnes() {
+        OffHeapDepartmentIndex index = new OffHeapDepartmentIndex();
+        index.add("", 1);
+        assertEquals(0, index.entryCount());
+
+        // Members spread over word and block boundaries, with other departments in between
+        int[] members = {1, 63, 64, 4_095, 4_096, 70_000, 1_000_000};
+        for (int id = 1; id <= 1_000_000; id += 7) {
+            index.add("Department " + id % 3, id);
+        }
+        for (int id : members) {
+            index.add("Legal", id);
+        }
+        int previous = 0;
+        for (int id : members) {
+            assertEquals(id, index.nextAfter("Legal", previous));
+            assertEquals(id, index.nextAfter("Legal", id - 1));
+            previous = id;
+        }
+        assertEquals(-1, index.nextAfter("Legal", 1_000_000));
+        assertEquals(-1, index.nextAfter("Legal", Integer.MAX_VALUE));
+
+        for (int id = 1; id <= 1_000_000; id += 7) {
+            index.remove("Department " + id % 3, id);
+        }
+        for (int id : members) {
+            index.remove("Legal", id);
+            index.remove("Legal", id);
+        }
+        assertEquals(0, index.entryCount());
+        assertEquals(-1, index.nextAfter("Legal", 0));
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.grpcdemo.store;
+
+import com.example.grpc.User;
+import com.example.grpcdemo.store.EmailIndex.Claim;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the unique email index
+ */
+class EmailIndexTest {
+
+    private static final List<Function<UserStore, EmailIndex>> INDEXES =
+            List.of(HeapEmailIndex::new, users -> new OffHeapEmailIndex(users, 16));
+
+    @Test
+    void claimsAreCaseInsensitiveAndReleasedOnlyByOwner() {
+        for (Function<UserStore, EmailIndex> factory : INDEXES) {
+            UserStore users = new HeapUserStore(16);
+            users.put(user(1, "Ann@Example.com"));
+            EmailIndex index = factory.apply(users);
+            String name = index.getClass().getSimpleName();
+            assertEquals(Claim.CLAIMED, index.claim(" Ann@Example.com", 1), name);
+            assertEquals(Claim.ALREADY_OWNED, index.claim("ann@example.com", 1), name);
+            assertEquals(Claim.TAKEN, index.claim("ANN@EXAMPLE.COM", 2), name);
+            assertEquals(1, index.lookup("ann@EXAMPLE.com "), name);
+
+            index.release("ann@example.com", 2);
+            assertEquals(1, index.lookup("ann@example.com"), name);
+            users.put(user(1, "ann@new.example.com"));
+            index.release("Ann@example.com", 1);
+            assertEquals(-1, index.lookup("ann@example.com"), name);
+            users.put(user(2, "ann@example.com"));
+            assertEquals(Claim.CLAIMED, index.claim("ann@example.com", 2), name);
+
+            // Users without an email never collide
+            assertNotEquals(Claim.TAKEN, index.claim("", 3), name);
+            assertNotEquals(Claim.TAKEN, index.claim("  ", 4), name);
+            assertEquals(-1, index.lookup(""), name);
+        }
+    }
+
+    @Test
+    void failedUpdateDoesNotDropAnAddressAConcurrentUpdateCommits() {
+        for (Function<UserStore, EmailIndex> factory : INDEXES) {
+            UserStore users = new HeapUserStore(16);
+            users.put(user(1, "old@example.com"));
+            EmailIndex index = factory.apply(users);
+            String name = index.getClass().getSimpleName();
+            index.claim("old@example.com", 1);
+
+            // Two updates of user 1 to the same new address; A inserts it, B relies on A's entry
+            assertEquals(Claim.CLAIMED, index.pin("new@example.com", 1), name);
+            assertEquals(Claim.ALREADY_OWNED, index.pin("new@example.com", 1), name);
+            // A fails and unpins before B commits
+            index.unpin("new@example.com", 1);
+            assertEquals(1, index.lookup("new@example.com"), name);
+            users.put(user(1, "new@example.com"));
+            index.unpin("new@example.com", 1);
+            index.release("old@example.com", 1);
+
+            assertEquals(1, index.lookup("new@example.com"), name);
+            assertEquals(Claim.TAKEN, index.pin("new@example.com", 2), name);
+            assertEquals(-1, index.lookup("old@example.com"), name);
+        }
+    }
+
+    @Test
+    void addressIsKeptWhileAWriterPinsIt() {
+        for (Function<UserStore, EmailIndex> factory : INDEXES) {
+            UserStore users = new HeapUserStore(16);
+            users.put(user(1, "kim@example.com"));
+            EmailIndex index = factory.apply(users);
+            String name = index.getClass().getSimpleName();
+            index.claim("kim@example.com", 1);
+
+            // An update moving the user back to its address pins it before the move away releases it
+            assertEquals(Claim.ALREADY_OWNED, index.pin("kim@example.com", 1), name);
+            users.put(user(1, "kim@new.example.com"));
+            index.release("kim@example.com", 1);
+            assertEquals(1, index.lookup("kim@example.com"), name);
+
+            // The pinning update fails, so nothing keeps the address
+            index.unpin("kim@example.com", 1);
+            assertEquals(-1, index.lookup("kim@example.com"), name);
+        }
+    }
+
+    @Test
+    void exactlyOneConcurrentClaimWins() throws InterruptedException {
+        for (Function<UserStore, EmailIndex> factory : INDEXES) {
+            EmailIndex index = factory.apply(new HeapUserStore(16));
+            int threads = 8;
+            AtomicInteger winners = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] claimants = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int id = t + 1;
+                claimants[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (index.pin("shared@example.com", id) == Claim.CLAIMED) {
+                        winners.incrementAndGet();
+                    }
+                });
+                claimants[t].start();
+            }
+            start.countDown();
+            for (Thread claimant : claimants) {
+                claimant.join();
+            }
+            assertEquals(1, winners.get(), index.getClass().getSimpleName());
+            assertTrue(index.lookup("shared@example.com") > 0, index.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    void offHeapIndexKeepsManyAddressesAndDropsThemAll() {
+        UserStore users = new HeapUserStore(16);
+        OffHeapEmailIndex index = new OffHeapEmailIndex(users, 16);
+        for (int id = 1; id <= 20_000; id++) {
+            users.put(user(id, "user" + id + "@example.com"));
+            assertEquals(Claim.CLAIMED, index.claim("user" + id + "@example.com", id));
+        }
+        assertEquals(20_000, index.size());
+        assertEquals(12_345, index.lookup("USER12345@example.com"));
+        assertEquals(-1, index.lookup("user20001@example.com"));
+
+        for (int id = 1; id <= 20_000; id++) {
+            users.remove(id);
+            index.release("user" + id + "@example.com", id);
+        }
+        assertEquals(0, index.size());
+    }
+
+    private static User user(int id, String email) {
+        return User.newBuilder().setId(id).setName("User " + id).setEmail(email).build();
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.grpcdemo.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for block-based ID allocation
+ */
+class IdAllocatorTest {
+
+    @Test
+    void issuesUniqueIdsAcrossThreadsAndLogsEveryBlockFirst() throws InterruptedException {
+        AtomicInteger logged = new AtomicInteger();
+        IdAllocator ids = new IdAllocator(1, 16, limit -> logged.accumulateAndGet(limit, Math::max));
+        Set<Integer> issued = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    int id = ids.next();
+                    assertTrue(id < logged.get(), "ID " + id + " issued before its block was logged");
+                    assertTrue(issued.add(id), "duplicate ID " + id);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8_000, issued.size());
+        // Threads sharing a stripe share its blocks, so at most ceil(1000 / 16) = 63 blocks per thread
+        assertTrue(logged.get() <= 1 + 8 * 63 * 16);
+    }
+
+    @Test
+    void shortLivedThreadsShareBlocks() throws InterruptedException {
+        AtomicInteger blocks = new AtomicInteger();
+        IdAllocator ids = new IdAllocator(1, 16, limit -> blocks.incrementAndGet());
+        Set<Integer> issued = ConcurrentHashMap.newKeySet();
+        int calls = 2_000;
+        // One thread per call, as the VIRTUAL server executor runs handlers
+        for (int i = 0; i < calls; i++) {
+            Thread thread = new Thread(() -> assertTrue(issued.add(ids.next())));
+            thread.start();
+            thread.join();
+        }
+        assertEquals(calls, issued.size());
+        // Each stripe's first block, then one per 16 IDs, instead of one block per thread
+        assertTrue(blocks.get() <= ids.stripeCount() + calls / 16, blocks.get() + " blocks");
+    }
+
+    @Test
+    void reservesContiguousRangesAndAdvancesPastRestoredIds() {
+        List<Integer> limits = new ArrayList<>();
+        IdAllocator ids = new IdAllocator(1, 4, limits::add);
+        ids.advanceTo(10);
+        ids.advanceTo(5);
+        assertEquals(10, ids.next());
+        assertEquals(11, ids.next());
+        assertEquals(14, ids.reserve(100));
+        assertEquals(12, ids.next());
+        assertEquals(13, ids.next());
+        assertEquals(114, ids.next());
+        assertEquals(List.of(14, 114, 118), limits);
+    }
+}
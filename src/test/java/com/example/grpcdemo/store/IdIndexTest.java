@@ -0,0 +1,42 @@
+package com.example.grpcdemo.store;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the ID-ordered index used by keyset pagination
+ */
+class IdIndexTest {
+
+    @Test
+    void seeksToNextLiveIdAcrossWordsAndPages() {
+        IdIndex index = new IdIndex();
+        assertEquals(-1, index.nextAfter(0));
+
+        index.add(1);
+        index.add(63);
+        index.add(64);
+        index.add(70_000);
+        index.add(Integer.MAX_VALUE);
+
+        assertEquals(1, index.nextAfter(0));
+        assertEquals(63, index.nextAfter(1));
+        assertEquals(64, index.nextAfter(63));
+        assertEquals(70_000, index.nextAfter(64));
+        assertEquals(Integer.MAX_VALUE, index.nextAfter(70_000));
+        assertEquals(-1, index.nextAfter(Integer.MAX_VALUE));
+
+        index.remove(63);
+        index.remove(70_000);
+        assertEquals(64, index.nextAfter(1));
+        assertEquals(Integer.MAX_VALUE, index.nextAfter(64));
+    }
+
+    @Test
+    void rejectsNonPositiveIds() {
+        IdIndex index = new IdIndex();
+        assertThrows(IllegalArgumentException.class, () -> index.add(0));
+        assertThrows(IllegalArgumentException.class, () -> index.add(-3));
+    }
+}
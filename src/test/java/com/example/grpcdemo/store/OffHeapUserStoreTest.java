@@ -0,0 +1,117 @@
+package com.example.grpcdemo.store;
+
+import com.example.grpc.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the off-heap user store and its slab allocator
+ */
+class OffHeapUserStoreTest {
+
+    @Test
+    void storesReplacesAndRemovesEncodedUsers() {
+        OffHeapUserStore store = new OffHeapUserStore(16, 1 << 16);
+        for (int id = 1; id <= 2_000; id++) {
+            assertNull(store.put(user(id, "User " + id)));
+        }
+        assertEquals(2_000, store.size());
+        assertEquals("User 1234", store.get(1234).getName());
+        assertNull(store.get(0));
+        assertNull(store.get(5_000));
+
+        assertEquals("User 7", store.compareAndExchange(user(7, "Renamed"), 0).getName());
+        assertEquals("Renamed", store.get(7).getName());
+        assertNull(store.compareAndExchange(user(9_999, "Ghost"), 0));
+        assertNull(store.get(9_999));
+
+        for (int id = 1; id <= 2_000; id += 2) {
+            assertNotNull(store.remove(id));
+        }
+        assertEquals(1_000, store.size());
+        assertNull(store.get(1));
+        for (int id = 2; id <= 2_000; id += 2) {
+            assertEquals(id, store.get(id).getId());
+        }
+
+        List<User> visited = new ArrayList<>();
+        store.forEach(visited::add);
+        assertEquals(1_000, visited.size());
+    }
+
+    @Test
+    void reusesFreedBlocksForUpdates() {
+        OffHeapUserStore store = new OffHeapUserStore(16, 1 << 16);
+        for (int id = 1; id <= 500; id++) {
+            store.put(user(id, "User " + id));
+        }
+        long bytes = store.offHeapBytes();
+        int slabs = store.slabCount();
+
+        for (int round = 0; round < 20; round++) {
+            for (int id = 1; id <= 500; id++) {
+                store.compareAndExchange(user(id, "User " + id + " r" + round % 10), 0);
+            }
+        }
+        assertEquals(bytes, store.offHeapBytes());
+        assertEquals(slabs, store.slabCount());
+
+        for (int id = 1; id <= 500; id++) {
+            store.remove(id);
+        }
+        assertEquals(0, store.offHeapBytes());
+    }
+
+    @Test
+    void putAllStoresAndReplacesLikePut() {
+        OffHeapUserStore batched = new OffHeapUserStore(16, 1 << 16);
+        OffHeapUserStore single = new OffHeapUserStore(16, 1 << 16);
+        List<User> batch = new ArrayList<>();
+        for (int id = 1; id <= 1_000; id++) {
+            batch.add(user(id, "User " + id));
+        }
+        // Replacements within the batch; the last user for an ID wins
+        batch.add(user(5, "Five again"));
+        batch.add(user(5, "Five last"));
+        batched.putAll(batch);
+        batch.forEach(single::put);
+
+        batched.putAll(List.of(user(7, "Seven again"), user(2_000, "New")));
+        single.put(user(7, "Seven again"));
+        single.put(user(2_000, "New"));
+
+        assertEquals(single.size(), batched.size());
+        assertEquals(single.offHeapBytes(), batched.offHeapBytes());
+        assertEquals("Five last", batched.get(5).getName());
+        assertEquals("Seven again", batched.get(7).getName());
+        assertEquals("User 999", batched.get(999).getName());
+        assertThrows(IllegalArgumentException.class, () -> batched.putAll(List.of(user(3_000, "x"), user(0, "y"))));
+        assertNull(batched.get(3_000));
+    }
+
+    @Test
+    void rejectsRecordsLongerThanTheHeaderCanHold() {
+        // Slabs may be far larger than the 24-bit length field
+        SlabAllocator allocator = new SlabAllocator(1 << 26);
+        assertThrows(IllegalArgumentException.class, () -> allocator.allocate(new byte[1 << 24]));
+        assertEquals(0, allocator.slabCount());
+
+        long location = allocator.allocate(new byte[(1 << 24) - 1]);
+        assertEquals((1 << 24) - 1, allocator.read(location).length);
+        allocator.free(location);
+        assertEquals(0, allocator.allocatedBytes());
+    }
+
+    private static User user(int id, String name) {
+        return User.newBuilder()
+                .setId(id)
+                .setName(name)
+                .setEmail("user" + id + "@example.com")
+                .setDepartment("Engineering")
+                .build();
+    }
+}